@@ -0,0 +1,89 @@
+/**
+ * The BulkLoadStats class holds the throughput figures of one bulk load.
+ */
+public class BulkLoadStats {
+    private final String table;
+    private final long rows;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    /**
+     * Constructs a BulkLoadStats object.
+     *
+     * @param table        The table that was loaded.
+     * @param rows         The number of rows written.
+     * @param bytes        The number of encoded bytes streamed to the database.
+     * @param elapsedNanos How long the load took, in nanoseconds.
+     */
+    public BulkLoadStats(String table, long rows, long bytes, long elapsedNanos) {
+        this.table = table;
+        this.rows = rows;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Gets the table that was loaded.
+     *
+     * @return The table name.
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Gets the number of rows written.
+     *
+     * @return The number of rows.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the number of encoded bytes streamed to the database.
+     *
+     * @return The number of bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets how long the load took.
+     *
+     * @return The elapsed time in milliseconds.
+     */
+    public double getElapsedMillis() {
+        return elapsedNanos / 1_000_000.0;
+    }
+
+    /**
+     * Gets the load throughput in rows.
+     *
+     * @return The number of rows written per second.
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /**
+     * Gets the load throughput in bytes.
+     *
+     * @return The number of bytes streamed per second.
+     */
+    public double getBytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytes * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /**
+     * Returns a string representation of the BulkLoadStats object.
+     *
+     * @return A string representation of the BulkLoadStats object.
+     */
+    @Override
+    public String toString() {
+        return String.format("Loaded %d rows (%d bytes) into %s in %.1f ms: %.0f rows/s, %.0f bytes/s",
+                rows, bytes, table, getElapsedMillis(), getRowsPerSecond(), getBytesPerSecond());
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+/**
+ * The BulkLoader class streams large numbers of rows into the database with COPY, for backfills and nightly imports.
+ * Rows are encoded one at a time as they are read from the source, so the full load is never held in memory.
+ */
+public class BulkLoader {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final HealthDataRollupDao rollupDao = new HealthDataRollupDao();
+    private final HealthDataChangeDao changeDao = new HealthDataChangeDao();
+
+    /**
+     * Loads health data into the health_data table. The whole load is committed or nothing is.
+     * The rollups of every loaded user are rebuilt for the loaded dates in the same transaction.
+     *
+     * @param healthData The health data to load, read once from start to end.
+     * @return The throughput of the load.
+     * @throws SQLException If the load fails, in which case no rows are written.
+     */
+    public BulkLoadStats loadHealthData(Iterator<? extends HealthData> healthData) throws SQLException {
+        String copy = "COPY health_data (user_id, weight_pounds, height_inches, steps, heart_rate, date) FROM STDIN";
+        Set<Integer> userIds = new HashSet<>();
+        LocalDate[] dateRange = new LocalDate[2];
+
+        return load("health_data", copy, healthData, (data, line) -> {
+            LocalDate date = HealthDataDao.dateOrToday(data);
+            userIds.add(data.getUserId());
+            if (dateRange[0] == null || date.isBefore(dateRange[0])) {
+                dateRange[0] = date;
+            }
+            if (dateRange[1] == null || date.isAfter(dateRange[1])) {
+                dateRange[1] = date;
+            }
+            line.append(data.getUserId()).append('\t')
+                    .append(data.getWeight()).append('\t')
+                    .append(data.getHeight()).append('\t')
+                    .append(data.getSteps()).append('\t')
+                    .append(data.getHeartRate()).append('\t')
+                    .append(date).append('\n');
+        }, db -> {
+            if (!userIds.isEmpty()) {
+                rollupDao.rebuild(db, userIds, dateRange[0], dateRange[1]);
+                changeDao.recordChanges(db, userIds);
+            }
+        });
+    }
+
+    /**
+     * Loads health data into the health_data table.
+     *
+     * @param healthData The health data to load.
+     * @return The throughput of the load.
+     * @throws SQLException If the load fails, in which case no rows are written.
+     */
+    public BulkLoadStats loadHealthData(Iterable<? extends HealthData> healthData) throws SQLException {
+        return loadHealthData(healthData.iterator());
+    }
+
+    /**
+     * Loads medicine reminders into the medicine_reminders table. The whole load is committed or nothing is.
+     *
+     * @param reminders The reminders to load, read once from start to end.
+     * @return The throughput of the load.
+     * @throws SQLException If the load fails, in which case no rows are written.
+     */
+    public BulkLoadStats loadMedicineReminders(Iterator<? extends MedicineReminder> reminders) throws SQLException {
+        String copy = "COPY medicine_reminders (user_id, medicine_name, dosage, schedule, start_date, end_date, " +
+                "schedule_minutes, schedule_weekdays, schedule_interval_days) FROM STDIN";
+
+        return load("medicine_reminders", copy, reminders, (reminder, line) -> {
+            line.append(reminder.getUserId()).append('\t');
+            appendText(line, reminder.getMedicineName()).append('\t');
+            appendText(line, reminder.getDosage()).append('\t');
+            appendText(line, reminder.getSchedule()).append('\t');
+            line.append(reminder.getStartDate()).append('\t')
+                    .append(reminder.getEndDate()).append('\t');
+            // The compiled schedule, as storeReminder writes it, so due-reminder scans can filter in SQL.
+            ReminderSchedule compiled = reminder.getCompiledSchedule();
+            line.append('{');
+            for (int i = 0; i < compiled.getMinuteCount(); i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append(compiled.getMinute(i));
+            }
+            line.append("}\t")
+                    .append(compiled.getWeekdayMask()).append('\t')
+                    .append(compiled.getIntervalDays()).append('\n');
+        }, db -> { });
+    }
+
+    /**
+     * Loads medicine reminders into the medicine_reminders table.
+     *
+     * @param reminders The reminders to load.
+     * @return The throughput of the load.
+     * @throws SQLException If the load fails, in which case no rows are written.
+     */
+    public BulkLoadStats loadMedicineReminders(Iterable<? extends MedicineReminder> reminders) throws SQLException {
+        return loadMedicineReminders(reminders.iterator());
+    }
+
+    private <T> BulkLoadStats load(String table, String copy, Iterator<? extends T> source, RowEncoder<T> encoder,
+                                   AfterCopy afterCopy) throws SQLException {
+        StringBuilder line = new StringBuilder(128);
+        long rows = 0;
+        long bytes = 0;
+        long start = System.nanoTime();
+
+        try (Connection db = DatabaseConnection.getConnection()) {
+            db.setAutoCommit(false);
+            PGCopyOutputStream out = new PGCopyOutputStream(db.unwrap(PGConnection.class), copy, COPY_BUFFER_SIZE);
+            try {
+                while (source.hasNext()) {
+                    line.setLength(0);
+                    encoder.encode(source.next(), line);
+                    byte[] encoded = line.toString().getBytes(StandardCharsets.UTF_8);
+                    out.write(encoded);
+                    bytes += encoded.length;
+                    rows++;
+                }
+                out.endCopy();
+            } catch (IOException | RuntimeException e) {
+                cancelQuietly(out);
+                throw new SQLException("Bulk load into " + table + " failed after " + rows + " rows", e);
+            }
+            afterCopy.run(db);
+            db.commit();
+        }
+        return new BulkLoadStats(table, rows, bytes, System.nanoTime() - start);
+    }
+
+    private void cancelQuietly(PGCopyOutputStream out) {
+        try {
+            if (out.isActive()) {
+                out.cancelCopy();
+            }
+        } catch (SQLException e) {
+            // The copy is being abandoned, the original error is the one worth reporting.
+        }
+    }
+
+    // Escapes a value for the COPY text format, which treats backslash, tab and line breaks as special.
+    private static StringBuilder appendText(StringBuilder line, String value) {
+        if (value == null) {
+            return line.append("\\N");
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': line.append("\\\\"); break;
+                case '\t': line.append("\\t"); break;
+                case '\n': line.append("\\n"); break;
+                case '\r': line.append("\\r"); break;
+                default: line.append(c);
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Writes one object as a line of COPY text.
+     */
+    private interface RowEncoder<T> {
+        void encode(T value, StringBuilder line);
+    }
+
+    /**
+     * Runs in the load's transaction once the rows are copied.
+     */
+    private interface AfterCopy {
+        void run(Connection db) throws SQLException;
+    }
+}
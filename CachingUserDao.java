@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A UserDao that keeps recently read users in memory, by ID and by email, so repeated profile lookups
+ * and logins do not each go to the database. Entries expire after a time to live and are dropped
+ * whenever the user is updated or deleted through this DAO.
+ * Each instance has its own cache, so changes made through one are not seen by another until their entries expire;
+ * use the shared instance from getInstance unless the cache really should be private.
+ * Cached User objects are shared between callers and should not be modified. Their password hash may be stale,
+ * so passwords are checked with verifyPassword, which always reads the hash from the database.
+ */
+public class CachingUserDao extends UserDao {
+    private static final int DEFAULT_MAX_SIZE = 10_000;
+    private static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000L;
+
+    private static CachingUserDao instance;
+
+    private final ExpiringLruCache<Integer, User> usersById;
+    private final ExpiringLruCache<String, User> usersByEmail;
+
+    /**
+     * Constructs a CachingUserDao holding up to 10,000 users for 5 minutes.
+     */
+    public CachingUserDao() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Constructs a CachingUserDao.
+     *
+     * @param maxSize   The maximum number of users cached in each of the by-ID and by-email caches.
+     * @param ttlMillis How long a cached user stays valid, in milliseconds.
+     */
+    public CachingUserDao(int maxSize, long ttlMillis) {
+        usersById = new ExpiringLruCache<>(maxSize, ttlMillis);
+        usersByEmail = new ExpiringLruCache<>(maxSize, ttlMillis);
+    }
+
+    /**
+     * Gets the shared CachingUserDao.
+     *
+     * @return The shared instance, created on first use.
+     */
+    public static synchronized CachingUserDao getInstance() {
+        if (instance == null) {
+            instance = new CachingUserDao();
+        }
+        return instance;
+    }
+
+    /**
+     * Gets a user by their ID, from the cache if possible.
+     *
+     * @param id The ID of the user to retrieve.
+     * @return The User object corresponding to the given ID.
+     */
+    @Override
+    public User getUserById(int id) {
+        User user = usersById.get(id);
+        if (user == null) {
+            user = super.getUserById(id);
+            cache(user);
+        }
+        return user;
+    }
+
+    /**
+     * Gets a user by their email address, from the cache if possible.
+     *
+     * @param email The email address of the user to retrieve.
+     * @return The User object connected to the given email address.
+     */
+    @Override
+    public User getUserByEmail(String email) {
+        User user = usersByEmail.get(email);
+        if (user == null) {
+            user = super.getUserByEmail(email);
+            cache(user);
+        }
+        return user;
+    }
+
+    /**
+     * Gets many users, taking the cached ones from the cache and the rest from the database in one query.
+     *
+     * @param ids The IDs of the users to retrieve.
+     * @return The users that were found, in the order their IDs were given, without duplicates.
+     */
+    @Override
+    public List<User> getUsersByIds(Collection<Integer> ids) {
+        Map<Integer, User> found = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        LinkedHashSet<Integer> uniqueIds = new LinkedHashSet<>(ids);
+        for (Integer id : uniqueIds) {
+            User user = usersById.get(id);
+            if (user != null) {
+                found.put(id, user);
+            } else {
+                missing.add(id);
+            }
+        }
+        for (User user : super.getUsersByIds(missing)) {
+            cache(user);
+            found.put(user.getId(), user);
+        }
+
+        List<User> users = new ArrayList<>(found.size());
+        for (Integer id : uniqueIds) {
+            User user = found.get(id);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Updates an existing user in the database and drops them from the cache.
+     *
+     * @param user The user object with the updated information.
+     * @return True if the user is successfully updated, false otherwise.
+     */
+    @Override
+    public boolean updateUser(User user) {
+        String oldEmail = storedEmail(user.getId());
+        invalidate(user.getId());
+        boolean updated = super.updateUser(user);
+        // Again afterwards, in case a concurrent read cached the old row while the update ran.
+        invalidate(user.getId());
+        removeEmail(oldEmail);
+        usersByEmail.remove(user.getEmail());
+        return updated;
+    }
+
+    /**
+     * Deletes a user from the database and drops them from the cache.
+     *
+     * @param id The ID of the user to delete.
+     * @return True if the user is successfully deleted, false otherwise.
+     */
+    @Override
+    public boolean deleteUser(int id) {
+        String oldEmail = storedEmail(id);
+        invalidate(id);
+        boolean deleted = super.deleteUser(id);
+        invalidate(id);
+        removeEmail(oldEmail);
+        return deleted;
+    }
+
+    /**
+     * Drops a user from the cache, for changes made to the users table outside this DAO.
+     *
+     * @param id The ID of the user.
+     */
+    public void invalidate(int id) {
+        User cached = usersById.remove(id);
+        if (cached != null && cached.getEmail() != null) {
+            usersByEmail.remove(cached.getEmail());
+        }
+    }
+
+    /**
+     * Gets the share of lookups, by ID and by email, that were answered from the cache.
+     *
+     * @return The hit rate between 0 and 1.
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return usersById.getHits() + usersByEmail.getHits();
+    }
+
+    /**
+     * Gets the number of lookups that went to the database.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return usersById.getMisses() + usersByEmail.getMisses();
+    }
+
+    // The user's email as the database has it, found through the cache when possible. The by-email entry can outlive
+    // the by-ID one, so the old email has to be known even when the user is no longer cached by ID.
+    private String storedEmail(int id) {
+        User cached = usersById.get(id);
+        return cached != null ? cached.getEmail() : super.getUserById(id).getEmail();
+    }
+
+    private void removeEmail(String email) {
+        if (email != null) {
+            usersByEmail.remove(email);
+        }
+    }
+
+    // Users that were not found come back with ID 0 and are not cached.
+    private void cache(User user) {
+        if (user == null || user.getId() == 0) {
+            return;
+        }
+        usersById.put(user.getId(), user);
+        if (user.getEmail() != null) {
+            usersByEmail.put(user.getEmail(), user);
+        }
+    }
+}
@@ -0,0 +1,379 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of database connections.
+ * Connections handed out by the pool are returned to it when they are closed, so callers
+ * should always use them in a try-with-resources block.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final Properties properties;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    // Idle connections, most recently returned first.
+    private final Deque<PooledEntry> idle = new ArrayDeque<>();
+    // One permit per connection that may be handed out.
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private int totalConnections = 0;
+    private boolean closed = false;
+
+    /**
+     * Constructs a ConnectionPool and opens the minimum number of connections.
+     *
+     * @param url                      The JDBC url of the database.
+     * @param properties               The connection properties (user, password and driver options).
+     * @param minSize                  The number of connections kept open even when idle.
+     * @param maxSize                  The maximum number of connections open at once.
+     * @param idleTimeoutMillis        How long a connection above the minimum may sit idle before it is closed.
+     * @param maxLifetimeMillis        How long a connection may live before it is retired.
+     * @param borrowTimeoutMillis      How long a caller waits for a connection when the pool is exhausted.
+     * @param validationTimeoutSeconds How long a connection has to answer the validation check on borrow.
+     * @param statementCacheSize       How many prepared statements each connection keeps open, 0 to disable the cache.
+     */
+    public ConnectionPool(String url, Properties properties, int minSize, int maxSize, long idleTimeoutMillis,
+                          long maxLifetimeMillis, long borrowTimeoutMillis, int validationTimeoutSeconds,
+                          int statementCacheSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+        }
+        this.url = url;
+        this.properties = properties;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, maxLifetimeMillis) / 2);
+        housekeeper.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+
+        fillToMinimum();
+    }
+
+    /**
+     * Borrows a connection from the pool, waiting up to the borrow timeout if all connections are in use.
+     * Closing the returned connection gives it back to the pool.
+     *
+     * @return A validated connection.
+     * @throws SQLException If no connection becomes available in time or a new one cannot be opened.
+     */
+    public Connection getConnection() throws SQLException {
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("Connection pool exhausted, timed out after " + borrowTimeoutMillis + "ms", "08001");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection", "08001", e);
+        }
+
+        try {
+            PooledEntry entry;
+            while ((entry = takeIdle()) != null) {
+                if (isExpired(entry, System.currentTimeMillis()) || !entry.raw.isValid(validationTimeoutSeconds)) {
+                    discard(entry);
+                    continue;
+                }
+                return entry.lease();
+            }
+            return openEntry().lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of connections currently open, idle or in use.
+     *
+     * @return The number of open connections.
+     */
+    public synchronized int getTotalConnections() {
+        return totalConnections;
+    }
+
+    /**
+     * Gets the number of open connections that are waiting in the pool.
+     *
+     * @return The number of idle connections.
+     */
+    public synchronized int getIdleConnections() {
+        return idle.size();
+    }
+
+    /**
+     * Gets the number of connections currently borrowed.
+     *
+     * @return The number of connections in use.
+     */
+    public int getActiveConnections() {
+        return maxSize - permits.availablePermits();
+    }
+
+    /**
+     * Gets how many times a prepared statement was served from a connection's statement cache.
+     *
+     * @return The number of statement cache hits.
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    /**
+     * Gets how many times a prepared statement had to be prepared because it was not cached.
+     *
+     * @return The number of statement cache misses.
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    /**
+     * Closes all idle connections and stops the pool. Borrowed connections are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        housekeeper.shutdownNow();
+        synchronized (this) {
+            closed = true;
+            while (!idle.isEmpty()) {
+                closeQuietly(idle.pollFirst());
+            }
+        }
+    }
+
+    private synchronized PooledEntry takeIdle() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed", "08003");
+        }
+        return idle.pollFirst();
+    }
+
+    private PooledEntry openEntry() throws SQLException {
+        synchronized (this) {
+            totalConnections++;
+        }
+        try {
+            return new PooledEntry(DriverManager.getConnection(url, properties));
+        } catch (SQLException | RuntimeException e) {
+            synchronized (this) {
+                totalConnections--;
+            }
+            throw e;
+        }
+    }
+
+    private void release(PooledEntry entry, boolean broken) {
+        try {
+            if (!broken && !isExpired(entry, System.currentTimeMillis()) && resetState(entry)) {
+                synchronized (this) {
+                    if (!closed) {
+                        entry.lastUsed = System.currentTimeMillis();
+                        idle.addFirst(entry);
+                        return;
+                    }
+                }
+            }
+            discard(entry);
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Rolls back anything left open by the borrower so the next one starts clean.
+    private boolean resetState(PooledEntry entry) {
+        try {
+            if (entry.raw.isClosed()) {
+                return false;
+            }
+            if (!entry.raw.getAutoCommit()) {
+                entry.raw.rollback();
+                entry.raw.setAutoCommit(true);
+            }
+            if (entry.raw.isReadOnly()) {
+                entry.raw.setReadOnly(false);
+            }
+            entry.raw.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(PooledEntry entry, long now) {
+        return now - entry.createdAt >= maxLifetimeMillis;
+    }
+
+    private void discard(PooledEntry entry) {
+        synchronized (this) {
+            totalConnections--;
+        }
+        closeQuietly(entry);
+    }
+
+    private void closeQuietly(PooledEntry entry) {
+        entry.statements.closeAll();
+        try {
+            entry.raw.close();
+        } catch (SQLException e) {
+            // The connection is being thrown away, nothing else to do.
+        }
+    }
+
+    // Closes idle connections past their lifetime, or idle too long while above the minimum size.
+    private void evict() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Iterator<PooledEntry> oldestFirst = idle.descendingIterator();
+            while (oldestFirst.hasNext()) {
+                PooledEntry entry = oldestFirst.next();
+                boolean idleTooLong = now - entry.lastUsed >= idleTimeoutMillis && totalConnections > minSize;
+                if (isExpired(entry, now) || idleTooLong) {
+                    oldestFirst.remove();
+                    totalConnections--;
+                    closeQuietly(entry);
+                }
+            }
+        }
+        fillToMinimum();
+    }
+
+    private void fillToMinimum() {
+        while (true) {
+            synchronized (this) {
+                if (closed || totalConnections >= minSize) {
+                    return;
+                }
+            }
+            try {
+                PooledEntry entry = openEntry();
+                synchronized (this) {
+                    idle.addLast(entry);
+                }
+            } catch (SQLException e) {
+                // The database may not be up yet, connections will be opened on demand instead.
+                return;
+            }
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool together with its bookkeeping.
+     */
+    private class PooledEntry {
+        private final Connection raw;
+        private final StatementCache statements;
+        private final long createdAt;
+        private long lastUsed;
+
+        private PooledEntry(Connection raw) {
+            this.raw = raw;
+            this.statements = new StatementCache(statementCacheSize, statementCacheHits, statementCacheMisses);
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsed = createdAt;
+        }
+
+        private Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new LeaseHandler(this));
+        }
+    }
+
+    /**
+     * Forwards calls to the physical connection, except close() which hands the connection back to the pool
+     * and prepareStatement(sql) / prepareStatement(sql, autoGeneratedKeys) which go through the statement cache.
+     * Each borrow gets its own handler so a connection closed twice is only returned once.
+     */
+    private class LeaseHandler implements InvocationHandler {
+        private final PooledEntry entry;
+        private boolean returned = false;
+        private boolean broken = false;
+
+        private LeaseHandler(PooledEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(entry, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || entry.raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + entry.raw;
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool", "08003");
+            }
+            try {
+                if (statementCacheSize > 0 && method.getName().equals("prepareStatement")) {
+                    Class<?>[] types = method.getParameterTypes();
+                    if (types.length == 1) {
+                        String sql = (String) args[0];
+                        return entry.statements.get(sql, (Connection) proxy, () -> entry.raw.prepareStatement(sql));
+                    }
+                    if (types.length == 2 && types[1] == int.class) {
+                        String sql = (String) args[0];
+                        int autoGeneratedKeys = (Integer) args[1];
+                        return entry.statements.get(autoGeneratedKeys + ":" + sql, (Connection) proxy,
+                                () -> entry.raw.prepareStatement(sql, autoGeneratedKeys));
+                    }
+                }
+                return method.invoke(entry.raw, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    if (state != null && state.startsWith("08")) {
+                        broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+    }
+}
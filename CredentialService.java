@@ -0,0 +1,277 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * The CredentialService class runs BCrypt hashing and password checks on a dedicated pool of threads,
+ * one per core, so the CPU-heavy work does not tie up the threads serving requests.
+ * When the pool's queue is full new work is rejected straight away instead of piling up.
+ * The BCrypt cost (log2 of the number of rounds) is configurable with -Dcredentials.bcryptCost or can be
+ * calibrated at startup against a latency target.
+ */
+public class CredentialService {
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final int MIN_COST = 4;
+    private static final int MAX_COST = 20;
+
+    private static CredentialService instance;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private volatile int cost = Integer.getInteger("credentials.bcryptCost", 10);
+    private volatile String dummyHash;
+
+    /**
+     * Constructs a CredentialService with one thread per core.
+     *
+     * @param queueCapacity How many hashes may wait for a thread before new ones are rejected.
+     */
+    public CredentialService(int queueCapacity) {
+        this(Runtime.getRuntime().availableProcessors(), queueCapacity);
+    }
+
+    /**
+     * Constructs a CredentialService.
+     *
+     * @param threads       The number of threads hashing at once.
+     * @param queueCapacity How many hashes may wait for a thread before new ones are rejected.
+     */
+    public CredentialService(int threads, int queueCapacity) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "credential-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Gets the shared CredentialService.
+     *
+     * @return The shared instance, created on first use.
+     */
+    public static synchronized CredentialService getInstance() {
+        if (instance == null) {
+            instance = new CredentialService(Integer.getInteger("credentials.queueCapacity", DEFAULT_QUEUE_CAPACITY));
+        }
+        return instance;
+    }
+
+    /**
+     * Hashes a password with a new salt.
+     *
+     * @param password The plain text password.
+     * @return A future completing with the BCrypt hash, or failing with RejectedExecutionException if the queue is full.
+     */
+    public CompletableFuture<String> hashAsync(String password) {
+        int currentCost = cost;
+        return submit(() -> BCrypt.hashpw(password, BCrypt.gensalt(currentCost)));
+    }
+
+    /**
+     * Checks a password against a stored hash.
+     *
+     * @param password       The plain text password.
+     * @param hashedPassword The stored BCrypt hash, may be null if the user does not exist, in which case a dummy hash
+     *                       is checked instead so the call takes as long as for a real user.
+     * @return A future completing with true if the password matches, or failing with RejectedExecutionException if the queue is full.
+     */
+    public CompletableFuture<Boolean> verifyAsync(String password, String hashedPassword) {
+        if (password == null || hashedPassword == null) {
+            // Do the same work as a real check, so the response time does not tell whether the user exists.
+            String candidate = password == null ? "" : password;
+            return submit(() -> {
+                BCrypt.checkpw(candidate, dummyHash());
+                return false;
+            });
+        }
+        return submit(() -> BCrypt.checkpw(password, hashedPassword));
+    }
+
+    /**
+     * Gets the BCrypt cost new hashes are made with.
+     *
+     * @return The cost, log2 of the number of rounds.
+     */
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * Sets the BCrypt cost new hashes are made with. Existing hashes are upgraded as their users log in.
+     *
+     * @param cost The cost, log2 of the number of rounds, between 4 and 20.
+     */
+    public void setCost(int cost) {
+        if (cost < MIN_COST || cost > MAX_COST) {
+            throw new IllegalArgumentException("BCrypt cost must be between " + MIN_COST + " and " + MAX_COST);
+        }
+        this.cost = cost;
+    }
+
+    /**
+     * Measures how long a hash takes on this machine and sets the cost to the highest one that stays under the target.
+     * Each step up doubles the work, so measuring stops as soon as the next cost would go over the target.
+     * Runs on the calling thread and is meant to be called once at startup.
+     *
+     * @param targetMillis The longest a single hash should take, in milliseconds.
+     * @return The chosen cost.
+     */
+    public int calibrate(long targetMillis) {
+        long targetNanos = targetMillis * 1_000_000L;
+        int chosen = MIN_COST;
+        for (int candidate = MIN_COST; candidate <= MAX_COST; candidate++) {
+            String salt = BCrypt.gensalt(candidate);
+            long elapsed = Long.MAX_VALUE;
+            // Best of two, so a single hiccup does not push the cost down.
+            for (int attempt = 0; attempt < 2; attempt++) {
+                long start = System.nanoTime();
+                BCrypt.hashpw("calibration", salt);
+                elapsed = Math.min(elapsed, System.nanoTime() - start);
+            }
+            if (elapsed > targetNanos) {
+                break;
+            }
+            chosen = candidate;
+            if (elapsed * 2 > targetNanos) {
+                break;
+            }
+        }
+        setCost(chosen);
+        return chosen;
+    }
+
+    /**
+     * Checks whether a stored hash was made with a different cost than the current one.
+     *
+     * @param hashedPassword The stored BCrypt hash.
+     * @return true if the password should be hashed again with the current cost.
+     */
+    public boolean needsRehash(String hashedPassword) {
+        return costOf(hashedPassword) != cost;
+    }
+
+    /**
+     * Reads the cost a BCrypt hash was made with.
+     *
+     * @param hashedPassword A BCrypt hash such as "$2a$10$...".
+     * @return The cost, or -1 if the hash is not in BCrypt format.
+     */
+    public static int costOf(String hashedPassword) {
+        if (hashedPassword == null || hashedPassword.length() < 7 || hashedPassword.charAt(0) != '$' || hashedPassword.charAt(6) != '$') {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(hashedPassword.substring(4, 6));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the number of hashes waiting for a thread.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Gets the number of hashes currently running.
+     *
+     * @return The number of busy threads.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Gets the number of hashes and checks completed.
+     *
+     * @return The number of completed operations.
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Gets the number of hashes and checks turned away because the queue was full.
+     *
+     * @return The number of rejected operations.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Gets the average time a hash or check took to run, not counting time spent queued.
+     *
+     * @return The average latency in milliseconds.
+     */
+    public double getAverageHashMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * Gets the longest time a hash or check took to run.
+     *
+     * @return The maximum latency in milliseconds.
+     */
+    public double getMaxHashMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Stops accepting work and lets queued hashes finish.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    // A hash of a password nobody has, at the current cost, checked in place of a missing user's hash.
+    private String dummyHash() {
+        String hash = dummyHash;
+        int currentCost = cost;
+        if (hash == null || costOf(hash) != currentCost) {
+            hash = BCrypt.hashpw("no such user", BCrypt.gensalt(currentCost));
+            dummyHash = hash;
+        }
+        return hash;
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> work) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    future.complete(work.get());
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    long elapsed = System.nanoTime() - start;
+                    completed.incrementAndGet();
+                    totalNanos.addAndGet(elapsed);
+                    maxNanos.accumulateAndGet(elapsed, Math::max);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
@@ -1,32 +1,86 @@
 // package com.keyin.client;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
 
 /**
  * This class provides a connection to the database.
+ * Connections come from a shared pool and are returned to it when they are closed.
  */
 public class DatabaseConnection {
     private static final String url = "jdbc:postgresql://localhost:5432/HealthMonitoring";
     private static final String user = "nat";
     private static final String password = "supersecretconfidentialpassword";
 
+    // Pool settings, can be overridden with -Ddb.pool.<name>=<value>.
+    private static final int minPoolSize = Integer.getInteger("db.pool.minSize", 2);
+    private static final int maxPoolSize = Integer.getInteger("db.pool.maxSize", 10);
+    private static final long idleTimeoutMillis = Long.getLong("db.pool.idleTimeoutMillis", 10 * 60 * 1000L);
+    private static final long maxLifetimeMillis = Long.getLong("db.pool.maxLifetimeMillis", 30 * 60 * 1000L);
+    private static final long borrowTimeoutMillis = Long.getLong("db.pool.borrowTimeoutMillis", 5 * 1000L);
+    private static final int validationTimeoutSeconds = Integer.getInteger("db.pool.validationTimeoutSeconds", 2);
+    private static final int statementCacheSize = Integer.getInteger("db.pool.statementCacheSize", 64);
+
+    private static ConnectionPool pool;
+
     /**
-     * Establishes a connection to the database.
-     * 
+     * Gets the shared connection pool, creating it on first use.
+     *
+     * @return The connection pool.
+     * @throws SQLException If the Postgres driver is not on the classpath.
+     */
+    public static synchronized ConnectionPool getPool() throws SQLException {
+        if (pool == null) {
+            try {
+                Class.forName("org.postgresql.Driver");     // For Postgres
+            } catch (ClassNotFoundException e) {
+                throw new SQLException("Postgres driver not found", e);
+            }
+            Properties properties = new Properties();
+            properties.setProperty("user", user);
+            properties.setProperty("password", password);
+            properties.setProperty("connectTimeout", "10");
+            // Use a named server-side statement from the first execution, the pool's statement cache keeps it alive.
+            properties.setProperty("prepareThreshold", "1");
+            pool = new ConnectionPool(url, properties, minPoolSize, maxPoolSize, idleTimeoutMillis,
+                    maxLifetimeMillis, borrowTimeoutMillis, validationTimeoutSeconds, statementCacheSize);
+        }
+        return pool;
+    }
+
+    /**
+     * Borrows a connection from the pool. Close it (ideally with try-with-resources) to return it.
+     *
      * @return A Connection object representing the database connection.
+     * @throws SQLException If no connection could be obtained.
+     */
+    public static Connection getConnection() throws SQLException {
+        return getPool().getConnection();
+    }
+
+    /**
+     * Establishes a connection to the database.
+     *
+     * @return A Connection object representing the database connection, or null if none could be obtained.
      */
     public static Connection getCon(){
         Connection connection = null;
         try{
-            Class.forName("org.postgresql.Driver");     // For Postgres
-            connection = DriverManager.getConnection(url, user, password);
-        } catch (ClassNotFoundException | SQLException  e) {
+            connection = getConnection();
+        } catch (SQLException e) {
             e.printStackTrace();
         }
         return connection;
     }
 
-
+    /**
+     * Closes the connection pool and every idle connection in it.
+     */
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
 }
@@ -17,7 +17,7 @@ public class DoctorPortalDao {
      * Constructs a DoctorPortalDao object and initializes UserDao and HealthDataDao.
      */
     public DoctorPortalDao() {
-        userDao = new UserDao();
+        userDao = CachingUserDao.getInstance();
         healthDataDao = new HealthDataDao();
     }
 
@@ -47,21 +47,17 @@ public class DoctorPortalDao {
      */
     public List<User> getPatientsByDoctorId(int doctorId) {
         List<User> patientsByDoctorIdList = new ArrayList<>();
-        int patient_id = 0;
 
-        String query = "SELECT patient_id FROM doctor_patient WHERE doctor_id = ?";
+        // One join instead of a user lookup per patient.
+        String query = "SELECT u.* FROM doctor_patient dp JOIN users u ON u.id = dp.patient_id WHERE dp.doctor_id = ? ORDER BY u.id";
 
-        try {
-            Connection db = DatabaseConnection.getCon();
-            PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
     
             statement.setInt(1, doctorId);
             ResultSet rs = statement.executeQuery();
             while (rs.next()) {
-                patient_id = rs.getInt("patient_id");
-                User patient = userDao.getUserById(patient_id);
-
-                patientsByDoctorIdList.add(patient);
+                patientsByDoctorIdList.add(UserDao.mapUser(rs));
             }
             } catch (SQLException error) {
                 error.printStackTrace();
@@ -69,6 +65,53 @@ public class DoctorPortalDao {
             return patientsByDoctorIdList;
     }
 
+    /**
+     * Retrieves the dashboard panel of a doctor: every patient with their latest reading and 30-day averages.
+     * Everything is computed by one query, so the panel costs one round trip however many patients there are.
+     *
+     * @param doctorId The ID of the doctor.
+     * @return A panel entry per patient, ordered by patient name.
+     */
+    public List<PatientPanelEntry> getPatientPanel(int doctorId) {
+        List<PatientPanelEntry> panel = new ArrayList<>();
+
+        String query = "WITH patients AS (SELECT patient_id FROM doctor_patient WHERE doctor_id = ?), " +
+                "latest AS (SELECT DISTINCT ON (h.user_id) h.* FROM health_data h JOIN patients p ON p.patient_id = h.user_id " +
+                "ORDER BY h.user_id, h.date DESC, h.id DESC), " +
+                "recent AS (SELECT h.user_id, count(*) AS reading_count, avg(h.steps) AS avg_steps, " +
+                "avg(h.heart_rate) AS avg_heart_rate, avg(h.weight_pounds) AS avg_weight " +
+                "FROM health_data h JOIN patients p ON p.patient_id = h.user_id " +
+                "WHERE h.date > CURRENT_DATE - 30 GROUP BY h.user_id) " +
+                "SELECT u.*, l.id AS latest_id, l.weight_pounds, l.height_inches, l.steps, l.heart_rate, l.date, " +
+                "r.reading_count, r.avg_steps, r.avg_heart_rate, r.avg_weight " +
+                "FROM patients p JOIN users u ON u.id = p.patient_id " +
+                "LEFT JOIN latest l ON l.user_id = u.id LEFT JOIN recent r ON r.user_id = u.id " +
+                "ORDER BY u.last_name, u.first_name, u.id";
+
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
+
+            statement.setInt(1, doctorId);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                User patient = UserDao.mapUser(rs);
+
+                HealthData latest = null;
+                int latestId = rs.getInt("latest_id");
+                if (!rs.wasNull()) {
+                    latest = new HealthData(latestId, patient.getId(), rs.getDouble("weight_pounds"), rs.getDouble("height_inches"),
+                            rs.getInt("steps"), rs.getInt("heart_rate"), rs.getDate("date").toLocalDate());
+                }
+
+                panel.add(new PatientPanelEntry(patient, latest, rs.getInt("reading_count"), rs.getDouble("avg_steps"),
+                        rs.getDouble("avg_heart_rate"), rs.getDouble("avg_weight")));
+            }
+        } catch (SQLException error) {
+            error.printStackTrace();
+        }
+        return panel;
+    }
+
     /**
      * Retrieves health data for a patient by their ID.
      *
@@ -93,9 +136,8 @@ public class DoctorPortalDao {
         boolean bool = false;
         String query = "INSERT INTO doctor_patient (doctor_id, patient_id, appointment) VALUES (?, ?, ?)";
         
-        try {
-            Connection db = DatabaseConnection.getCon();
-            PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
     
             statement.setInt(1, doctorId);
             statement.setInt(2, patientId);
@@ -123,9 +165,8 @@ public class DoctorPortalDao {
         boolean bool = false;
         String query = "UPDATE doctor_patient SET appointment = ? WHERE doctor_id = ? AND patient_id = ?";
 
-        try {
-            Connection db = DatabaseConnection.getCon();
-            PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
     
             statement.setObject(1, appointmentDate);
             statement.setInt(2, doctorId);
@@ -153,9 +194,8 @@ public class DoctorPortalDao {
         boolean bool = false;
         String query = "DELETE FROM doctor_patient WHERE doctor_id = ? AND patient_id = ? AND appointment = ?";
 
-        try {
-            Connection db = DatabaseConnection.getCon();
-            PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
     
             statement.setInt(1, doctorId);
             statement.setInt(2, patientId);
@@ -0,0 +1,70 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * The DueReminder class represents one concrete time a medicine reminder fires.
+ */
+public class DueReminder {
+    private final MedicineReminder reminder;
+    private final LocalDateTime fireAt;
+    private final long fireMinute;
+
+    /**
+     * Constructs a DueReminder object.
+     *
+     * @param reminder The reminder that fires.
+     * @param fireAt   When it fires, to the minute.
+     */
+    public DueReminder(MedicineReminder reminder, LocalDateTime fireAt) {
+        this.reminder = reminder;
+        this.fireAt = fireAt;
+        this.fireMinute = epochMinute(fireAt);
+    }
+
+    /**
+     * Gets the reminder that fires.
+     *
+     * @return The medicine reminder.
+     */
+    public MedicineReminder getReminder() {
+        return reminder;
+    }
+
+    /**
+     * Gets when the reminder fires.
+     *
+     * @return The fire time.
+     */
+    public LocalDateTime getFireAt() {
+        return fireAt;
+    }
+
+    /**
+     * Gets when the reminder fires, as a minute count.
+     *
+     * @return The number of minutes from 1970-01-01T00:00 to the fire time, in local time.
+     */
+    public long getFireMinute() {
+        return fireMinute;
+    }
+
+    /**
+     * Counts the minutes from 1970-01-01T00:00 to a local date and time, ignoring seconds.
+     *
+     * @param dateTime The local date and time.
+     * @return The number of whole minutes.
+     */
+    public static long epochMinute(LocalDateTime dateTime) {
+        return Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    /**
+     * Returns a string representation of the DueReminder object.
+     *
+     * @return A string representation of the DueReminder object.
+     */
+    @Override
+    public String toString() {
+        return fireAt + " user " + reminder.getUserId() + ": " + reminder.getMedicineName() + " " + reminder.getDosage();
+    }
+}
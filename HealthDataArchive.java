@@ -0,0 +1,274 @@
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The HealthDataArchive class packs a user's health data history into a single compact blob for archiving.
+ * Readings are stored oldest first as variable-length integers: dates as the change in the gap between readings
+ * (delta-of-delta, almost always 0 for daily readings), and IDs, weight, height, steps and heart rate as the
+ * change from the previous reading. Weight and height are kept in tenths, the precision of the health_data table.
+ * A Reader walks the blob one reading at a time, so old history can be scanned without decoding all of it.
+ */
+public class HealthDataArchive {
+    private static final int MAGIC = 0x48444131;    // "HDA1"
+
+    /**
+     * Encodes a user's series into an archive blob.
+     *
+     * @param series The readings to archive.
+     * @return The encoded archive.
+     */
+    public static byte[] encode(HealthDataSeries series) {
+        int count = series.size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + count * 6);
+        writeInt(out, MAGIC);
+        writeVarInt(out, series.getUserId());
+        writeVarInt(out, count);
+
+        long previousId = 0;
+        long previousDay = 0;
+        long previousGap = 0;
+        long previousWeight = 0;
+        long previousHeight = 0;
+        long previousSteps = 0;
+        long previousHeartRate = 0;
+        for (int i = 0; i < count; i++) {
+            long id = series.getId(i);
+            long stepCount = series.getSteps(i);
+            long heartRate = series.getHeartRate(i);
+            long day = series.getEpochDay(i);
+            long gap = day - previousDay;
+            long weight = series.getWeightTenths(i);
+            long height = series.getHeightTenths(i);
+
+            writeSignedVarLong(out, id - previousId);
+            writeSignedVarLong(out, i == 0 ? day : gap - previousGap);
+            writeSignedVarLong(out, weight - previousWeight);
+            writeSignedVarLong(out, height - previousHeight);
+            writeSignedVarLong(out, stepCount - previousSteps);
+            writeSignedVarLong(out, heartRate - previousHeartRate);
+
+            previousId = id;
+            previousGap = i == 0 ? 0 : gap;
+            previousDay = day;
+            previousWeight = weight;
+            previousHeight = height;
+            previousSteps = stepCount;
+            previousHeartRate = heartRate;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Opens a reader over an archive blob.
+     *
+     * @param archive The encoded archive.
+     * @return A reader positioned before the first reading.
+     */
+    public static Reader read(byte[] archive) {
+        return new Reader(archive);
+    }
+
+    /**
+     * Decodes an archive back into a series.
+     *
+     * @param archive The encoded archive.
+     * @return A series holding every archived reading.
+     */
+    public static HealthDataSeries decode(byte[] archive) {
+        Reader reader = new Reader(archive);
+        HealthDataSeries series = new HealthDataSeries(reader.getUserId(), reader.getCount());
+        while (reader.advance()) {
+            series.appendTenths(reader.id, (int) reader.day, (int) reader.weight, (short) reader.height, reader.getSteps(),
+                    (short) reader.getHeartRate());
+        }
+        return series;
+    }
+
+    /**
+     * Reads an archive one reading at a time. The current reading's fields are available as primitives after
+     * advance(), so scanning an archive does not have to create a HealthData per reading.
+     */
+    public static class Reader implements Iterator<HealthData> {
+        private final byte[] archive;
+        private final int userId;
+        private final int count;
+        private int position;
+        private int read = 0;
+
+        private int id = 0;
+        private long day = 0;
+        private long gap = 0;
+        private long weight = 0;
+        private long height = 0;
+        private int steps = 0;
+        private int heartRate = 0;
+
+        private Reader(byte[] archive) {
+            this.archive = archive;
+            if (archive.length < 4 || readInt(archive, 0) != MAGIC) {
+                throw new IllegalArgumentException("Not a health data archive");
+            }
+            position = 4;
+            userId = (int) readVarLong();
+            count = (int) readVarLong();
+        }
+
+        /**
+         * Gets the ID of the user the archive belongs to.
+         *
+         * @return The ID of the user.
+         */
+        public int getUserId() {
+            return userId;
+        }
+
+        /**
+         * Gets the number of readings in the archive.
+         *
+         * @return The number of readings.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Moves to the next reading.
+         *
+         * @return true if there was another reading, false at the end of the archive.
+         */
+        public boolean advance() {
+            if (read == count) {
+                return false;
+            }
+            id += (int) readSignedVarLong();
+            long dayDelta = readSignedVarLong();
+            if (read == 0) {
+                day = dayDelta;
+            } else {
+                gap += dayDelta;
+                day += gap;
+            }
+            weight += readSignedVarLong();
+            height += readSignedVarLong();
+            steps += (int) readSignedVarLong();
+            heartRate += (int) readSignedVarLong();
+            read++;
+            return true;
+        }
+
+        /**
+         * Gets the date of the current reading.
+         *
+         * @return The date.
+         */
+        public LocalDate getDate() {
+            return LocalDate.ofEpochDay(day);
+        }
+
+        /**
+         * Gets the weight of the current reading.
+         *
+         * @return The weight.
+         */
+        public double getWeight() {
+            return weight / 10.0;
+        }
+
+        /**
+         * Gets the height of the current reading.
+         *
+         * @return The height.
+         */
+        public double getHeight() {
+            return height / 10.0;
+        }
+
+        /**
+         * Gets the step count of the current reading.
+         *
+         * @return The number of steps.
+         */
+        public int getSteps() {
+            return steps;
+        }
+
+        /**
+         * Gets the heart rate of the current reading.
+         *
+         * @return The heart rate.
+         */
+        public int getHeartRate() {
+            return heartRate;
+        }
+
+        /**
+         * Checks whether there are readings left.
+         *
+         * @return true if next() will return a reading.
+         */
+        @Override
+        public boolean hasNext() {
+            return read < count;
+        }
+
+        /**
+         * Decodes the next reading as a HealthData object.
+         *
+         * @return The next reading.
+         */
+        @Override
+        public HealthData next() {
+            if (!advance()) {
+                throw new NoSuchElementException();
+            }
+            return new HealthData(id, userId, weight / 10.0, height / 10.0, steps, heartRate, getDate());
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                if (position >= archive.length) {
+                    throw new IllegalArgumentException("Truncated health data archive");
+                }
+                byte b = archive[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+
+        private long readSignedVarLong() {
+            long zigZag = readVarLong();
+            return (zigZag >>> 1) ^ -(zigZag & 1);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    // Zig-zag encoding keeps small negative changes as short as small positive ones.
+    private static void writeSignedVarLong(ByteArrayOutputStream out, long value) {
+        writeVarInt(out, (value << 1) ^ (value >> 63));
+    }
+}
@@ -0,0 +1,122 @@
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Compares the archive encoding with a fixed-width row encoding of the same readings (the columns of health_data,
+ * with weight and height as doubles and the date as an epoch day), on size and on the time to scan every reading.
+ * Uses synthetic histories so it runs without a database.
+ */
+public class HealthDataArchiveBenchmark {
+    private static final int ROW_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Optionally the number of readings per user (default 1825, five years of daily readings)
+     *             and the number of users (default 1000).
+     */
+    public static void main(String[] args) {
+        int readings = args.length > 0 ? Integer.parseInt(args[0]) : 1825;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        Random random = new Random(42);
+
+        HealthDataSeries[] histories = new HealthDataSeries[users];
+        for (int u = 0; u < users; u++) {
+            histories[u] = syntheticHistory(u + 1, readings, random);
+        }
+
+        byte[][] archives = new byte[users][];
+        byte[][] rows = new byte[users][];
+        long archiveBytes = 0;
+        long rowBytes = 0;
+        for (int u = 0; u < users; u++) {
+            archives[u] = HealthDataArchive.encode(histories[u]);
+            rows[u] = encodeRows(histories[u]);
+            archiveBytes += archives[u].length;
+            rowBytes += rows[u].length;
+        }
+
+        // Warm up both decoders before timing them.
+        for (int i = 0; i < 5; i++) {
+            scanArchives(archives);
+            scanRows(rows);
+        }
+        long start = System.nanoTime();
+        long archiveChecksum = scanArchives(archives);
+        long archiveNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        long rowChecksum = scanRows(rows);
+        long rowNanos = System.nanoTime() - start;
+
+        long total = (long) readings * users;
+        System.out.println("Readings: " + total + " (" + users + " users x " + readings + ")");
+        System.out.printf("Row format:     %,d bytes (%.1f bytes/reading), scan %.1f ms (%.0f ns/reading)%n",
+                rowBytes, (double) rowBytes / total, rowNanos / 1e6, (double) rowNanos / total);
+        System.out.printf("Archive format: %,d bytes (%.1f bytes/reading), scan %.1f ms (%.0f ns/reading)%n",
+                archiveBytes, (double) archiveBytes / total, archiveNanos / 1e6, (double) archiveNanos / total);
+        System.out.printf("Archive is %.1fx smaller%n", (double) rowBytes / archiveBytes);
+        if (archiveChecksum != rowChecksum) {
+            System.out.println("Checksums differ, the archive did not round trip!");
+        }
+    }
+
+    // A daily random walk: weight drifts by a tenth of a pound, height is fixed, steps and heart rate vary.
+    private static HealthDataSeries syntheticHistory(int userId, int readings, Random random) {
+        HealthDataSeries series = new HealthDataSeries(userId, readings);
+        int day = (int) LocalDate.of(2019, 1, 1).toEpochDay();
+        float weight = 120 + random.nextInt(120);
+        float height = 60 + random.nextInt(20);
+        int id = userId * readings;
+        for (int i = 0; i < readings; i++) {
+            weight += (random.nextInt(3) - 1) / 10f;
+            int steps = 3000 + random.nextInt(9000);
+            short heartRate = (short) (60 + random.nextInt(30));
+            series.append(id++, day++, Math.round(weight * 10) / 10f, height, steps, heartRate);
+        }
+        return series;
+    }
+
+    private static byte[] encodeRows(HealthDataSeries series) {
+        ByteBuffer buffer = ByteBuffer.allocate(series.size() * ROW_BYTES);
+        for (int i = 0; i < series.size(); i++) {
+            buffer.putInt(series.getId(i));
+            buffer.putInt(series.getUserId());
+            buffer.putDouble(series.getWeight(i));
+            buffer.putDouble(series.getHeight(i));
+            buffer.putInt(series.getSteps(i));
+            buffer.putInt(series.getHeartRate(i));
+            buffer.putInt(series.getEpochDay(i));
+        }
+        return buffer.array();
+    }
+
+    private static long scanArchives(byte[][] archives) {
+        long checksum = 0;
+        for (byte[] archive : archives) {
+            HealthDataArchive.Reader reader = HealthDataArchive.read(archive);
+            while (reader.advance()) {
+                checksum += reader.getSteps() + reader.getHeartRate() + Math.round(reader.getWeight() * 10);
+            }
+        }
+        return checksum;
+    }
+
+    private static long scanRows(byte[][] rows) {
+        long checksum = 0;
+        for (byte[] row : rows) {
+            ByteBuffer buffer = ByteBuffer.wrap(row);
+            while (buffer.hasRemaining()) {
+                buffer.getInt();
+                buffer.getInt();
+                double weight = buffer.getDouble();
+                buffer.getDouble();
+                int steps = buffer.getInt();
+                int heartRate = buffer.getInt();
+                buffer.getInt();
+                checksum += steps + heartRate + Math.round(weight * 10);
+            }
+        }
+        return checksum;
+    }
+}
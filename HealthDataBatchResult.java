@@ -0,0 +1,112 @@
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The HealthDataBatchResult class holds the outcome of a batch insert of health data,
+ * one generated ID per row in the order the rows were given, the error for every row that failed,
+ * and the rows logged to the write-ahead log because the database could not be reached.
+ */
+public class HealthDataBatchResult {
+    private final int[] generatedIds;
+    private final Map<Integer, SQLException> failures;
+    private final Set<Integer> logged;
+
+    /**
+     * Constructs a HealthDataBatchResult with no logged rows.
+     *
+     * @param generatedIds The generated ID of every row, 0 for rows that were not inserted.
+     * @param failures     The error for each failed row, keyed by the row's position in the batch.
+     */
+    public HealthDataBatchResult(int[] generatedIds, Map<Integer, SQLException> failures) {
+        this(generatedIds, failures, Collections.emptySet());
+    }
+
+    /**
+     * Constructs a HealthDataBatchResult.
+     *
+     * @param generatedIds The generated ID of every row, 0 for rows that were not inserted.
+     * @param failures     The error for each failed row, keyed by the row's position in the batch.
+     * @param logged       The positions of the rows logged to be inserted later.
+     */
+    public HealthDataBatchResult(int[] generatedIds, Map<Integer, SQLException> failures, Set<Integer> logged) {
+        this.generatedIds = generatedIds;
+        this.failures = Collections.unmodifiableMap(failures);
+        this.logged = Collections.unmodifiableSet(logged);
+    }
+
+    /**
+     * Gets the generated IDs, in the same order as the rows in the batch.
+     *
+     * @return The generated ID of every row, 0 for rows that were not inserted.
+     */
+    public int[] getGeneratedIds() {
+        return generatedIds;
+    }
+
+    /**
+     * Gets the errors of the rows that could not be inserted.
+     *
+     * @return The error for each failed row, keyed by the row's position in the batch.
+     */
+    public Map<Integer, SQLException> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Gets the number of rows that were inserted.
+     *
+     * @return The number of inserted rows.
+     */
+    public int getInsertedCount() {
+        return generatedIds.length - failures.size() - logged.size();
+    }
+
+    /**
+     * Gets the rows logged to the write-ahead log to be inserted later, because the database could not be reached.
+     *
+     * @return The positions of the logged rows in the batch.
+     */
+    public Set<Integer> getLogged() {
+        return logged;
+    }
+
+    /**
+     * Gets the number of rows logged to be inserted later.
+     *
+     * @return The number of logged rows.
+     */
+    public int getLoggedCount() {
+        return logged.size();
+    }
+
+    /**
+     * Gets the number of rows that could not be inserted.
+     *
+     * @return The number of failed rows.
+     */
+    public int getFailedCount() {
+        return failures.size();
+    }
+
+    /**
+     * Checks whether every row in the batch was inserted or logged.
+     *
+     * @return true if no row failed, false otherwise.
+     */
+    public boolean isComplete() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Returns a string representation of the HealthDataBatchResult object.
+     *
+     * @return A string representation of the HealthDataBatchResult object.
+     */
+    @Override
+    public String toString() {
+        return ("Batch of " + generatedIds.length + ": " + getInsertedCount() + " inserted, " + getLoggedCount() + " logged, "
+                + getFailedCount() + " failed");
+    }
+}
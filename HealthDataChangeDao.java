@@ -0,0 +1,94 @@
+import java.sql.*;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The HealthDataChangeDao class tracks which users' health data changed since their recommendations were last generated.
+ * Every write to health_data stamps the user's row in health_data_changes with a new value from a sequence, and
+ * recommendation_watermarks holds the stamp each user's recommendations were last generated from, so the users
+ * with a newer stamp are exactly the ones whose recommendations are out of date.
+ */
+public class HealthDataChangeDao {
+
+    /**
+     * Records that the health data of some users changed.
+     * The stamp is taken after the user's row is locked, so a later commit always gets a later stamp.
+     *
+     * @param db      The connection of the transaction that changed the health data.
+     * @param userIds The IDs of the users whose health data changed.
+     * @throws SQLException If the changes could not be recorded.
+     */
+    public void recordChanges(Connection db, Collection<Integer> userIds) throws SQLException {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        String query = "INSERT INTO health_data_changes (user_id, change_seq) VALUES (?, nextval('health_data_change_seq')) " +
+                "ON CONFLICT (user_id) DO UPDATE SET change_seq = nextval('health_data_change_seq'), changed_at = now()";
+
+        try (PreparedStatement statement = db.prepareStatement(query)) {
+            // In ID order, so concurrent writers lock the rows in the same order and cannot deadlock.
+            for (Integer userId : new TreeSet<>(userIds)) {
+                statement.setInt(1, userId);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Records that the recommendations of some users were generated from their health data as of the given stamps.
+     * A watermark never moves backwards.
+     *
+     * @param changeSeqs The change stamp each user's recommendations were generated from, by user ID.
+     * @throws SQLException If the watermarks could not be stored.
+     */
+    public void markProcessed(Map<Integer, Long> changeSeqs) throws SQLException {
+        if (changeSeqs.isEmpty()) {
+            return;
+        }
+        String query = "INSERT INTO recommendation_watermarks AS w (user_id, processed_seq) VALUES (?, ?) " +
+                "ON CONFLICT (user_id) DO UPDATE SET processed_seq = GREATEST(w.processed_seq, EXCLUDED.processed_seq), processed_at = now()";
+
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
+            db.setAutoCommit(false);
+            try {
+                for (Map.Entry<Integer, Long> entry : new TreeMap<>(changeSeqs).entrySet()) {
+                    statement.setInt(1, entry.getKey());
+                    statement.setLong(2, entry.getValue());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                db.commit();
+            } catch (SQLException error) {
+                db.rollback();
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Counts the users whose health data changed since their recommendations were last generated.
+     *
+     * @return The number of users with out of date recommendations, or 0 if they could not be counted.
+     */
+    public int countPendingUsers() {
+        int count = 0;
+
+        String query = "SELECT count(*) FROM health_data_changes c LEFT JOIN recommendation_watermarks w ON w.user_id = c.user_id " +
+                "WHERE w.processed_seq IS NULL OR c.change_seq > w.processed_seq";
+
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query);
+             ResultSet rs = statement.executeQuery()) {
+            if (rs.next()) {
+                count = rs.getInt(1);
+            }
+        } catch (SQLException error) {
+            error.printStackTrace();
+        }
+        return count;
+    }
+}
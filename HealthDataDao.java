@@ -1,5 +1,13 @@
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 import java.sql.*;
 import java.time.LocalDate;
 
@@ -7,22 +15,92 @@ import java.time.LocalDate;
  * The HealthDataDao class provides methods to interact with the database for CRUD operations related to health data.
  */
 public class HealthDataDao {
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int STREAM_FETCH_SIZE = 1000;
+    private static final long WRITE_BEHIND_CLOSE_TIMEOUT_MILLIS = 30_000;
+
+    private int batchSize;
+    private final HealthDataRollupDao rollupDao = new HealthDataRollupDao();
+    private final HealthDataChangeDao changeDao = new HealthDataChangeDao();
+    private volatile HealthDataWriteBehind writeBehind;
+    private volatile WriteAheadLog writeAheadLog;
+    private volatile HealthDataSeriesStore seriesStore;
+
+    /**
+     * Constructs a HealthDataDao that sends batch inserts in groups of 500 rows.
+     */
+    public HealthDataDao() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a HealthDataDao with the given batch size.
+     *
+     * @param batchSize The number of rows sent to the database in one round trip by createHealthDataBatch.
+     */
+    public HealthDataDao(int batchSize) {
+        setBatchSize(batchSize);
+    }
+
+    /**
+     * Gets the number of rows sent to the database in one round trip by createHealthDataBatch.
+     *
+     * @return The batch size.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of rows sent to the database in one round trip by createHealthDataBatch.
+     *
+     * @param batchSize The batch size, at least 1.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
 
     /**
      * Inserts health data into the database.
+     * If the database cannot be reached and a write-ahead log is set, the reading is logged to be inserted later.
+     * If the connection is lost while committing, the reading may or may not have been stored. It is reported as
+     * failed and not logged, so a retry by the caller can store it twice.
      *
      * @param healthData The health data to be inserted.
-     * @return true if the operation is successful, false otherwise.
+     * @return true if the operation is successful or the reading was logged, false otherwise.
      */
    public boolean createHealthData(HealthData healthData) { /* insert health data into database */ 
+    try {
+        return insertHealthData(healthData);
+    } catch (SQLException error) {
+        WriteAheadLog log = writeAheadLog;
+        if (log != null && WriteAheadLog.isUnavailable(error)) {
+            try {
+                log.append(healthData);
+                return true;
+            } catch (IOException | IllegalArgumentException logError) {
+                error.addSuppressed(logError);
+            }
+        }
+        error.printStackTrace();
+    }
+    return false;
+    }
+
+    // Inserts one reading and its rollups in a transaction, without falling back to the write-ahead log.
+    private boolean insertHealthData(HealthData healthData) throws SQLException {
     boolean bool = false;
     
     String query = "INSERT INTO health_data (user_id, weight_pounds, height_inches, steps, heart_rate, date) VALUES (?, ?, ?, ?, ?, ?)";
 
     // Database logic to insert data using PREPARED Statement
-    try {
-    Connection db = DatabaseConnection.getCon();
-    PreparedStatement statement = db.prepareStatement(query);
+    try (Connection db = DatabaseConnection.getConnection();
+         PreparedStatement statement = db.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+    // The reading and its rollups are committed together.
+    db.setAutoCommit(false);
     statement.setInt(1, healthData.getUserId());
     statement.setDouble(2, healthData.getWeight());
     statement.setDouble(3, healthData.getHeight());
@@ -34,14 +112,261 @@ public class HealthDataDao {
     statement.setDate(6, java.sql.Date.valueOf(dateToInsert));
     int newRow = statement.executeUpdate();
     if(newRow != 0) {
+        int[] generatedId = new int[1];
+        readGeneratedIds(statement, generatedId, 0);
+        healthData.setId(generatedId[0]);
+        rollupDao.recordInserts(db, List.of(healthData));
+        changeDao.recordChanges(db, List.of(healthData.getUserId()));
         bool = true;
     }
-    } catch (SQLException error){
-        error.printStackTrace();
+    try {
+        db.commit();
+    } catch (SQLException error) {
+        throw WriteAheadLog.outcomeUnknown(error);
+    }
+    }
+    HealthDataSeriesStore store = seriesStore;
+    if (bool && store != null) {
+        store.append(healthData);
     }
     return bool;
     } 
 
+    /**
+     * Inserts health data without waiting for the commit. With write-behind enabled the reading is buffered and
+     * written in a batch with others; otherwise it is inserted straight away on the calling thread.
+     *
+     * @param healthData The health data to be inserted.
+     * @return A future completing with the generated ID once the reading is committed, with 0 if the database could
+     *         not be reached and the reading was logged to be inserted later, or failing if it was neither.
+     */
+    public CompletableFuture<Integer> createHealthDataAsync(HealthData healthData) {
+        HealthDataWriteBehind buffer = writeBehind;
+        if (buffer != null) {
+            return buffer.submit(healthData);
+        }
+        HealthDataBatchResult result = createHealthDataBatch(List.of(healthData));
+        SQLException error = result.getFailures().get(0);
+        return error == null ? CompletableFuture.completedFuture(result.getGeneratedIds()[0])
+                : CompletableFuture.failedFuture(error);
+    }
+
+    /**
+     * Turns on write-behind for createHealthDataAsync, replacing any buffer already in use. The old buffer is
+     * closed, waiting up to 30 seconds for it to write what it holds and stopping its writer thread.
+     *
+     * @param writeBehind The buffer readings are submitted to, or null to write them straight away again.
+     */
+    public void setWriteBehind(HealthDataWriteBehind writeBehind) {
+        HealthDataWriteBehind previous = this.writeBehind;
+        this.writeBehind = writeBehind;
+        if (previous != null && previous != writeBehind) {
+            previous.close(WRITE_BEHIND_CLOSE_TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * Gets the write-behind buffer used by createHealthDataAsync.
+     *
+     * @return The buffer, or null if readings are written straight away.
+     */
+    public HealthDataWriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Sets the write-ahead log createHealthData, createHealthDataBatch and createHealthDataAsync fall back to
+     * when the database cannot be reached.
+     *
+     * @param writeAheadLog The log, or null to fail instead.
+     */
+    public void setWriteAheadLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    /**
+     * Gets the write-ahead log the create methods fall back to when the database cannot be reached.
+     *
+     * @return The log, or null if there is none.
+     */
+    public WriteAheadLog getWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    /**
+     * Sets the in-memory series store kept up to date with the readings written through this DAO.
+     * HealthDataSeriesStore registers itself when it is constructed.
+     *
+     * @param seriesStore The store, or null for none.
+     */
+    public void setSeriesStore(HealthDataSeriesStore seriesStore) {
+        this.seriesStore = seriesStore;
+    }
+
+    /**
+     * Gets the in-memory series store kept up to date with the readings written through this DAO.
+     *
+     * @return The store, or null if there is none.
+     */
+    public HealthDataSeriesStore getSeriesStore() {
+        return seriesStore;
+    }
+
+    /**
+     * Inserts many health data rows in a single transaction, sending them in groups of batchSize rows.
+     * A row that fails is reported in the result without rolling back the rows around it.
+     * The generated IDs are also set on the given HealthData objects.
+     * If the database cannot be reached and a write-ahead log is set, the rows that failed for that reason are
+     * logged to be inserted later and reported as logged instead of failed. If the connection is lost while
+     * committing, every row fails with SQLState 40003 and none is logged, since they may have been stored.
+     *
+     * @param healthData The health data to be inserted.
+     * @return The generated ID of every row, the rows that were logged and the error of every row that failed.
+     */
+    public HealthDataBatchResult createHealthDataBatch(Collection<HealthData> healthData) {
+        List<HealthData> rows = new ArrayList<>(healthData);
+        HealthDataBatchResult result = insertHealthDataBatch(rows);
+        WriteAheadLog log = writeAheadLog;
+        if (log == null || result.isComplete()) {
+            return result;
+        }
+        Map<Integer, SQLException> failures = new LinkedHashMap<>();
+        Set<Integer> logged = new HashSet<>();
+        for (Map.Entry<Integer, SQLException> failure : result.getFailures().entrySet()) {
+            SQLException error = failure.getValue();
+            if (WriteAheadLog.isUnavailable(error)) {
+                try {
+                    log.append(rows.get(failure.getKey()));
+                    logged.add(failure.getKey());
+                    continue;
+                } catch (IOException | IllegalArgumentException logError) {
+                    error.addSuppressed(logError);
+                }
+            }
+            failures.put(failure.getKey(), error);
+        }
+        return new HealthDataBatchResult(result.getGeneratedIds(), failures, logged);
+    }
+
+    /**
+     * Inserts many health data rows like createHealthDataBatch, without falling back to the write-ahead log.
+     *
+     * @param healthData The health data to be inserted.
+     * @return The generated ID of every row and the error of every row that failed.
+     */
+    HealthDataBatchResult insertHealthDataBatch(Collection<HealthData> healthData) {
+        List<HealthData> rows = new ArrayList<>(healthData);
+        int[] generatedIds = new int[rows.size()];
+        Map<Integer, SQLException> failures = new LinkedHashMap<>();
+
+        String query = "INSERT INTO health_data (user_id, weight_pounds, height_inches, steps, heart_rate, date) VALUES (?, ?, ?, ?, ?, ?)";
+
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+            db.setAutoCommit(false);
+            // All at once and in order, rather than chunk by chunk as the rollups are recorded.
+            Set<Integer> userIds = new HashSet<>();
+            for (HealthData row : rows) {
+                userIds.add(row.getUserId());
+            }
+            rollupDao.lockForInserts(db, userIds);
+
+            for (int start = 0; start < rows.size(); start += batchSize) {
+                int end = Math.min(start + batchSize, rows.size());
+                Savepoint chunkSavepoint = db.setSavepoint();
+                try {
+                    for (int i = start; i < end; i++) {
+                        setHealthDataParameters(statement, rows.get(i));
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    readGeneratedIds(statement, generatedIds, start);
+                    rollupDao.recordInserts(db, rows.subList(start, end));
+                    db.releaseSavepoint(chunkSavepoint);
+                } catch (SQLException chunkError) {
+                    // One bad row fails the whole chunk in Postgres, so redo this chunk row by row to find it.
+                    db.rollback(chunkSavepoint);
+                    statement.clearBatch();
+                    for (int i = start; i < end; i++) {
+                        generatedIds[i] = 0;
+                        Savepoint rowSavepoint = db.setSavepoint();
+                        try {
+                            setHealthDataParameters(statement, rows.get(i));
+                            statement.executeUpdate();
+                            readGeneratedIds(statement, generatedIds, i);
+                            rollupDao.recordInserts(db, List.of(rows.get(i)));
+                            db.releaseSavepoint(rowSavepoint);
+                        } catch (SQLException rowError) {
+                            generatedIds[i] = 0;
+                            db.rollback(rowSavepoint);
+                            failures.put(i, rowError);
+                        }
+                    }
+                }
+            }
+            Set<Integer> changedUserIds = new HashSet<>();
+            for (int i = 0; i < rows.size(); i++) {
+                if (generatedIds[i] != 0) {
+                    changedUserIds.add(rows.get(i).getUserId());
+                }
+            }
+            changeDao.recordChanges(db, changedUserIds);
+            try {
+                db.commit();
+            } catch (SQLException commitError) {
+                throw WriteAheadLog.outcomeUnknown(commitError);
+            }
+        } catch (SQLException error) {
+            // Nothing was committed, so every row failed.
+            error.printStackTrace();
+            for (int i = 0; i < rows.size(); i++) {
+                generatedIds[i] = 0;
+                failures.putIfAbsent(i, error);
+            }
+        }
+
+        HealthDataSeriesStore store = seriesStore;
+        for (int i = 0; i < rows.size(); i++) {
+            if (generatedIds[i] != 0) {
+                rows.get(i).setId(generatedIds[i]);
+                if (store != null) {
+                    store.append(rows.get(i));
+                }
+            }
+        }
+        return new HealthDataBatchResult(generatedIds, failures);
+    }
+
+    // Binds a health data row to the parameters of the insert statement.
+    private void setHealthDataParameters(PreparedStatement statement, HealthData healthData) throws SQLException {
+        statement.setInt(1, healthData.getUserId());
+        statement.setDouble(2, healthData.getWeight());
+        statement.setDouble(3, healthData.getHeight());
+        statement.setInt(4, healthData.getSteps());
+        statement.setInt(5, healthData.getHeartRate());
+        statement.setDate(6, java.sql.Date.valueOf(dateOrToday(healthData)));
+    }
+
+    /**
+     * Gets the date a reading is stored under, today if it has no date.
+     *
+     * @param healthData The health data.
+     * @return The reading's date, or today's date if it is null.
+     */
+    static LocalDate dateOrToday(HealthData healthData) {
+        return healthData.getDate() != null ? healthData.getDate() : LocalDate.now();
+    }
+
+    // Copies the generated keys of the last execution into ids, starting at position from.
+    private void readGeneratedIds(PreparedStatement statement, int[] ids, int from) throws SQLException {
+        try (ResultSet keys = statement.getGeneratedKeys()) {
+            int i = from;
+            while (keys.next()) {
+                ids[i++] = keys.getInt("id");
+            }
+        }
+    }
+
     /**
      * Retrieves health data by ID from the database.
      *
@@ -59,9 +384,8 @@ public class HealthDataDao {
 
         String query = "SELECT * FROM health_data WHERE id = ?";
 
-        try {
-          Connection db = DatabaseConnection.getCon();
-          PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
           statement.setInt(1, id);
             ResultSet rs = statement.executeQuery();
             while (rs.next()) {
@@ -103,9 +427,8 @@ public class HealthDataDao {
 
       String query = "SELECT * FROM health_data WHERE user_id = ?";
 
-        try {
-          Connection db = DatabaseConnection.getCon();
-          PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
           statement.setInt(1, userId);
             ResultSet rs = statement.executeQuery();
             while (rs.next()) {
@@ -132,6 +455,131 @@ public class HealthDataDao {
           return healthDataArrayList;
    }
    
+    /**
+     * Streams health data by user ID from the database, oldest first.
+     * Rows are fetched from Postgres in chunks as the stream is read, so memory use does not grow with
+     * the length of the user's history. Close the stream (try-with-resources) if it is not read to the end.
+     *
+     * @param userId The ID of the user.
+     * @return A stream of the health data for the given user ID, empty if the query could not be run.
+     */
+    public Stream<HealthData> streamHealthDataByUserId(int userId) {
+        String query = "SELECT * FROM health_data WHERE user_id = ? ORDER BY date, id";
+
+        try {
+            return ResultSetStream.open(query, STREAM_FETCH_SIZE, statement -> statement.setInt(1, userId), HealthDataDao::mapHealthData);
+        } catch (SQLException error) {
+            error.printStackTrace();
+            return Stream.empty();
+        }
+    }
+
+    private void evictSeries(Collection<Integer> userIds) {
+        HealthDataSeriesStore store = seriesStore;
+        if (store != null) {
+            for (int userId : userIds) {
+                store.evict(userId);
+            }
+        }
+    }
+
+    /**
+     * Streams a user's health data recorded on or after a date from the database, oldest first.
+     * Rows are fetched in chunks as the stream is read. Close the stream (try-with-resources) when done.
+     *
+     * @param userId The ID of the user.
+     * @param from   The first date to include.
+     * @return A stream of the user's health data from that date. Reading it throws IllegalStateException if a
+     *         chunk cannot be fetched.
+     * @throws SQLException If the query could not be started.
+     */
+    public Stream<HealthData> streamHealthDataByUserIdSince(int userId, LocalDate from) throws SQLException {
+        String query = "SELECT * FROM health_data WHERE user_id = ? AND date >= ? ORDER BY date, id";
+
+        return ResultSetStream.open(query, STREAM_FETCH_SIZE, statement -> {
+            statement.setInt(1, userId);
+            statement.setDate(2, java.sql.Date.valueOf(from));
+        }, HealthDataDao::mapHealthData);
+    }
+
+    /**
+     * Retrieves the health data of a user recorded between two dates, oldest first.
+     *
+     * @param userId The ID of the user.
+     * @param from   The first date to include.
+     * @param to     The last date to include.
+     * @return A list of health data for the user within the date range.
+     */
+    public List<HealthData> getHealthDataByUserIdBetween(int userId, LocalDate from, LocalDate to) {
+        List<HealthData> healthDataArrayList = new ArrayList<>();
+
+        String query = "SELECT * FROM health_data WHERE user_id = ? AND date >= ? AND date <= ? ORDER BY date, id";
+
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
+            statement.setInt(1, userId);
+            statement.setDate(2, java.sql.Date.valueOf(from));
+            statement.setDate(3, java.sql.Date.valueOf(to));
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                healthDataArrayList.add(mapHealthData(rs));
+            }
+        } catch (SQLException error) {
+            error.printStackTrace();
+        }
+        return healthDataArrayList;
+    }
+
+    /**
+     * Retrieves one page of a user's health data, oldest first, using keyset pagination.
+     * To get the next page pass the date and ID of the last row of the current page,
+     * so each page costs the same no matter how deep into the history it is.
+     *
+     * @param userId    The ID of the user.
+     * @param afterDate The date of the last row of the previous page, or null for the first page.
+     * @param afterId   The ID of the last row of the previous page, ignored for the first page.
+     * @param limit     The maximum number of rows in the page.
+     * @return A list of at most limit health data entries following the given position.
+     */
+    public List<HealthData> getHealthDataPage(int userId, LocalDate afterDate, int afterId, int limit) {
+        List<HealthData> healthDataArrayList = new ArrayList<>();
+
+        String query = afterDate == null
+                ? "SELECT * FROM health_data WHERE user_id = ? ORDER BY date, id LIMIT ?"
+                : "SELECT * FROM health_data WHERE user_id = ? AND (date, id) > (?, ?) ORDER BY date, id LIMIT ?";
+
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
+            int index = 1;
+            statement.setInt(index++, userId);
+            if (afterDate != null) {
+                statement.setDate(index++, java.sql.Date.valueOf(afterDate));
+                statement.setInt(index++, afterId);
+            }
+            statement.setInt(index, limit);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                healthDataArrayList.add(mapHealthData(rs));
+            }
+        } catch (SQLException error) {
+            error.printStackTrace();
+        }
+        return healthDataArrayList;
+    }
+
+    /**
+     * Creates a HealthData object from the current row of a health_data result set.
+     *
+     * @param rs The result set, positioned on a health_data row.
+     * @return The health data in the row.
+     * @throws SQLException If a column cannot be read.
+     */
+    static HealthData mapHealthData(ResultSet rs) throws SQLException {
+        java.sql.Date date = rs.getDate("date");
+        return new HealthData(rs.getInt("id"), rs.getInt("user_id"), rs.getDouble("weight_pounds"), rs.getDouble("height_inches"),
+                rs.getInt("steps"), rs.getInt("heart_rate"), date != null ? date.toLocalDate() : null);
+    }
+   
    /**
      * Updates health data in the database.
      *
@@ -140,25 +588,40 @@ public class HealthDataDao {
      */
     public boolean updateHealthData(HealthData healthData) { /* update health data in the database */ 
         boolean bool = false;
-        // Prepare the SQL query
-        String query = "UPDATE health_data SET user_id = ?, weight_pounds = ?, height_inches = ?, steps = ?, heart_rate = ?, date = ?, WHERE id = ?";
+        List<Integer> changedUserIds = List.of();
+        // Prepare the SQL query, joining the row to itself returns its values from before the update.
+        String query = "UPDATE health_data AS h SET user_id = ?, weight_pounds = ?, height_inches = ?, steps = ?, heart_rate = ?, date = ? " +
+                "FROM health_data AS old WHERE h.id = ? AND old.id = h.id RETURNING old.user_id, old.date";
 
         // Database logic to get update user Using Prepared Statement
-        try {
-          Connection db = DatabaseConnection.getCon();
-          PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
+          db.setAutoCommit(false);
           statement.setInt(1, healthData.getUserId());
           statement.setDouble(2, healthData.getWeight());
           statement.setDouble(3, healthData.getHeight());
           statement.setInt(4,healthData.getSteps());
           statement.setInt(5, healthData.getHeartRate());
-            // Set a default date if healthData.getDate() is null
-    LocalDate dateToInsert = healthData.getDate() != null ? healthData.getDate() : LocalDate.now();
-    statement.setDate(6, java.sql.Date.valueOf(dateToInsert));
-          int newRow = statement.executeUpdate();
-          if(newRow != 0) {
+          LocalDate dateToInsert = dateOrToday(healthData);
+          statement.setDate(6, java.sql.Date.valueOf(dateToInsert));
+          statement.setInt(7, healthData.getId());
+          ResultSet rs = statement.executeQuery();
+          if (rs.next()) {
+              // Rebuild the rollups the reading left as well as the ones it moved into.
+              int oldUserId = rs.getInt("user_id");
+              LocalDate oldDate = rs.getDate("date").toLocalDate();
+              rollupDao.lockForRebuild(db, List.of(oldUserId, healthData.getUserId()));
+              rollupDao.rebuild(db, List.of(oldUserId), oldDate, oldDate);
+              if (oldUserId != healthData.getUserId() || !oldDate.equals(dateToInsert)) {
+                  rollupDao.rebuild(db, List.of(healthData.getUserId()), dateToInsert, dateToInsert);
+              }
+              changedUserIds = List.of(oldUserId, healthData.getUserId());
+              changeDao.recordChanges(db, changedUserIds);
               bool = true;
           }
+          db.commit();
+          // A series cannot change a reading in place, so the users' series are reloaded on next use.
+          evictSeries(changedUserIds);
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -174,16 +637,24 @@ public class HealthDataDao {
     public boolean deleteHealthData(int id) { /* delete health data from the database */ 
       boolean bool = false;
         // Prepare the SQL query
-        String query = "DELETE FROM health_data WHERE id = ?";
+        String query = "DELETE FROM health_data WHERE id = ? RETURNING user_id, date";
 
         // Database logic to delete user
-        try {
-            Connection con = DatabaseConnection.getCon();
-            PreparedStatement statement = con.prepareStatement(query);
+        try (Connection con = DatabaseConnection.getConnection();
+             PreparedStatement statement = con.prepareStatement(query)) {
+            con.setAutoCommit(false);
             statement.setInt(1, id);
-            int rowsUpdated = statement.executeUpdate();
-            if (rowsUpdated != 0){
+            ResultSet rs = statement.executeQuery();
+            if (rs.next()){
+                LocalDate date = rs.getDate("date").toLocalDate();
+                int userId = rs.getInt("user_id");
+                rollupDao.rebuild(con, List.of(userId), date, date);
+                changeDao.recordChanges(con, List.of(userId));
                 bool = true;
+                con.commit();
+                evictSeries(List.of(userId));
+            } else {
+                con.commit();
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -0,0 +1,278 @@
+import java.sql.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The HealthDataRollupDao class maintains per-user daily and weekly aggregates of health data in the
+ * health_data_rollups table and answers trend questions from them without scanning raw readings.
+ * The write methods take the caller's connection so rollups change in the same transaction as health_data.
+ * Inserts and rebuilds of the same user are kept apart with transaction-level advisory locks: inserts take a
+ * shared lock per user and rebuilds an exclusive one, always in user ID order, so a rebuild never misses or
+ * collides with a reading committed while it runs.
+ */
+public class HealthDataRollupDao {
+    /** Period of a rollup covering one day. */
+    public static final String DAY = "day";
+    /** Period of a rollup covering one week, starting on Monday. */
+    public static final String WEEK = "week";
+
+    private static final String[] PERIODS = { DAY, WEEK };
+
+    // The first key of the advisory locks, so they cannot clash with locks taken for anything else.
+    private static final int LOCK_SPACE = 0x726F6C6C;   // "roll"
+
+    private static final String COLUMNS = "user_id, period, period_start, reading_count, steps_sum, steps_min, steps_max, " +
+            "heart_rate_sum, heart_rate_min, heart_rate_max, weight_sum, weight_min, weight_max, last_weight, last_date";
+
+    /**
+     * Adds newly inserted readings to the daily and weekly rollups they fall in.
+     * A transaction inserting readings over several calls should call lockForInserts for all its users first,
+     * so its locks are taken in order.
+     *
+     * @param db         The connection of the transaction that inserted the readings.
+     * @param healthData The inserted readings.
+     * @throws SQLException If a rollup could not be updated.
+     */
+    public void recordInserts(Connection db, Collection<HealthData> healthData) throws SQLException {
+        String query = "INSERT INTO health_data_rollups AS r (" + COLUMNS + ") VALUES (?, ?, ?, 1, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+                "ON CONFLICT (user_id, period, period_start) DO UPDATE SET " +
+                "reading_count = r.reading_count + 1, " +
+                "steps_sum = r.steps_sum + EXCLUDED.steps_sum, " +
+                "steps_min = LEAST(r.steps_min, EXCLUDED.steps_min), " +
+                "steps_max = GREATEST(r.steps_max, EXCLUDED.steps_max), " +
+                "heart_rate_sum = r.heart_rate_sum + EXCLUDED.heart_rate_sum, " +
+                "heart_rate_min = LEAST(r.heart_rate_min, EXCLUDED.heart_rate_min), " +
+                "heart_rate_max = GREATEST(r.heart_rate_max, EXCLUDED.heart_rate_max), " +
+                "weight_sum = r.weight_sum + EXCLUDED.weight_sum, " +
+                "weight_min = LEAST(r.weight_min, EXCLUDED.weight_min), " +
+                "weight_max = GREATEST(r.weight_max, EXCLUDED.weight_max), " +
+                "last_weight = CASE WHEN EXCLUDED.last_date >= r.last_date THEN EXCLUDED.last_weight ELSE r.last_weight END, " +
+                "last_date = GREATEST(r.last_date, EXCLUDED.last_date)";
+
+        Set<Integer> userIds = new HashSet<>();
+        for (HealthData data : healthData) {
+            userIds.add(data.getUserId());
+        }
+        lockForInserts(db, userIds);
+        try (PreparedStatement statement = db.prepareStatement(query)) {
+            for (HealthData data : healthData) {
+                LocalDate date = HealthDataDao.dateOrToday(data);
+                for (String period : PERIODS) {
+                    statement.setInt(1, data.getUserId());
+                    statement.setString(2, period);
+                    statement.setDate(3, Date.valueOf(periodStart(period, date)));
+                    statement.setInt(4, data.getSteps());
+                    statement.setInt(5, data.getSteps());
+                    statement.setInt(6, data.getSteps());
+                    statement.setInt(7, data.getHeartRate());
+                    statement.setInt(8, data.getHeartRate());
+                    statement.setInt(9, data.getHeartRate());
+                    statement.setDouble(10, data.getWeight());
+                    statement.setDouble(11, data.getWeight());
+                    statement.setDouble(12, data.getWeight());
+                    statement.setDouble(13, data.getWeight());
+                    statement.setDate(14, Date.valueOf(date));
+                    statement.addBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Takes the shared locks that let a transaction insert readings for the given users while keeping rebuilds of
+     * the same users out until it commits. Inserts from different transactions do not wait for each other.
+     *
+     * @param db      The connection of the inserting transaction.
+     * @param userIds The IDs of the users whose readings are inserted.
+     * @throws SQLException If the locks could not be taken.
+     */
+    public void lockForInserts(Connection db, Collection<Integer> userIds) throws SQLException {
+        lock(db, userIds, "pg_advisory_xact_lock_shared");
+    }
+
+    /**
+     * Takes the exclusive locks rebuild needs for the given users, waiting for transactions inserting readings for
+     * them to finish. A transaction that rebuilds several users in separate calls should lock them all first.
+     *
+     * @param db      The connection of the rebuilding transaction.
+     * @param userIds The IDs of the users whose rollups are rebuilt.
+     * @throws SQLException If the locks could not be taken.
+     */
+    public void lockForRebuild(Connection db, Collection<Integer> userIds) throws SQLException {
+        lock(db, userIds, "pg_advisory_xact_lock");
+    }
+
+    // Locks the users in ID order, so two transactions locking overlapping users cannot deadlock on each other.
+    private void lock(Connection db, Collection<Integer> userIds, String function) throws SQLException {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        String query = "SELECT " + function + "(" + LOCK_SPACE + ", u) FROM (SELECT DISTINCT u FROM unnest(?::int[]) AS u ORDER BY u) AS users";
+        try (PreparedStatement statement = db.prepareStatement(query)) {
+            statement.setArray(1, db.createArrayOf("integer", userIds.toArray()));
+            statement.executeQuery().close();
+        }
+    }
+
+    /**
+     * Recomputes the rollups of the given users from raw readings for every week touching the date range.
+     * Used after updates and deletes, where minimums and maximums cannot be adjusted incrementally.
+     *
+     * @param db      The connection of the transaction that changed the readings.
+     * @param userIds The IDs of the users whose rollups are recomputed.
+     * @param from    The first changed date.
+     * @param to      The last changed date.
+     * @throws SQLException If the rollups could not be recomputed.
+     */
+    public void rebuild(Connection db, Collection<Integer> userIds, LocalDate from, LocalDate to) throws SQLException {
+        // Whole weeks, so the weekly rollup covering the range is rebuilt along with its days.
+        LocalDate start = periodStart(WEEK, from);
+        LocalDate end = periodStart(WEEK, to).plusDays(6);
+        rebuild(db, userIds, start, end, true);
+    }
+
+    /**
+     * Recomputes all rollups of the given users from raw readings, for example after a bulk load.
+     *
+     * @param db      The connection of the transaction that changed the readings.
+     * @param userIds The IDs of the users whose rollups are recomputed.
+     * @throws SQLException If the rollups could not be recomputed.
+     */
+    public void rebuild(Connection db, Collection<Integer> userIds) throws SQLException {
+        rebuild(db, userIds, null, null, false);
+    }
+
+    private void rebuild(Connection db, Collection<Integer> userIds, LocalDate start, LocalDate end, boolean ranged) throws SQLException {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        // Readings other transactions are still inserting for these users are committed before the rollups are read,
+        // and new ones wait until this transaction commits.
+        lockForRebuild(db, userIds);
+        Array users = db.createArrayOf("integer", userIds.toArray());
+
+        String delete = "DELETE FROM health_data_rollups WHERE user_id = ANY(?)" + (ranged ? " AND period_start >= ? AND period_start <= ?" : "");
+        try (PreparedStatement statement = db.prepareStatement(delete)) {
+            statement.setArray(1, users);
+            if (ranged) {
+                statement.setDate(2, Date.valueOf(start));
+                statement.setDate(3, Date.valueOf(end));
+            }
+            statement.executeUpdate();
+        }
+
+        // The period is written into the SQL rather than bound, because Postgres cannot tell that a bound
+        // date_trunc(?, date) in the select list is the same expression as the one in GROUP BY.
+        for (String period : PERIODS) {
+            String insert = "INSERT INTO health_data_rollups (" + COLUMNS + ") " +
+                    "SELECT user_id, '" + period + "', date_trunc('" + period + "', date)::date, count(*), sum(steps), min(steps), max(steps), " +
+                    "sum(heart_rate), min(heart_rate), max(heart_rate), sum(weight_pounds), min(weight_pounds), max(weight_pounds), " +
+                    "(array_agg(weight_pounds ORDER BY date DESC, id DESC))[1], max(date) " +
+                    "FROM health_data WHERE user_id = ANY(?)" + (ranged ? " AND date >= ? AND date <= ?" : "") + " " +
+                    "GROUP BY user_id, date_trunc('" + period + "', date) " +
+                    // Only a writer that skipped the locks can get a row in first; the recomputed values win.
+                    "ON CONFLICT (user_id, period, period_start) DO UPDATE SET " +
+                    "reading_count = EXCLUDED.reading_count, steps_sum = EXCLUDED.steps_sum, " +
+                    "steps_min = EXCLUDED.steps_min, steps_max = EXCLUDED.steps_max, " +
+                    "heart_rate_sum = EXCLUDED.heart_rate_sum, heart_rate_min = EXCLUDED.heart_rate_min, " +
+                    "heart_rate_max = EXCLUDED.heart_rate_max, weight_sum = EXCLUDED.weight_sum, " +
+                    "weight_min = EXCLUDED.weight_min, weight_max = EXCLUDED.weight_max, " +
+                    "last_weight = EXCLUDED.last_weight, last_date = EXCLUDED.last_date";
+            try (PreparedStatement statement = db.prepareStatement(insert)) {
+                statement.setArray(1, users);
+                if (ranged) {
+                    statement.setDate(2, Date.valueOf(start));
+                    statement.setDate(3, Date.valueOf(end));
+                }
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Retrieves a user's rollups of one period length whose period starts within a date range, oldest first.
+     *
+     * @param userId The ID of the user.
+     * @param period DAY or WEEK.
+     * @param from   The earliest period start to include.
+     * @param to     The latest period start to include.
+     * @return A list of the user's rollups in the range.
+     */
+    public List<HealthRollup> getRollups(int userId, String period, LocalDate from, LocalDate to) {
+        List<HealthRollup> rollups = new ArrayList<>();
+
+        String query = "SELECT * FROM health_data_rollups WHERE user_id = ? AND period = ? AND period_start >= ? AND period_start <= ? ORDER BY period_start";
+
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
+            statement.setInt(1, userId);
+            statement.setString(2, period);
+            statement.setDate(3, Date.valueOf(from));
+            statement.setDate(4, Date.valueOf(to));
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                rollups.add(new HealthRollup(rs.getInt("user_id"), rs.getString("period"), rs.getDate("period_start").toLocalDate(),
+                        rs.getInt("reading_count"), rs.getLong("steps_sum"), rs.getInt("steps_min"), rs.getInt("steps_max"),
+                        rs.getLong("heart_rate_sum"), rs.getInt("heart_rate_min"), rs.getInt("heart_rate_max"),
+                        rs.getDouble("weight_sum"), rs.getDouble("weight_min"), rs.getDouble("weight_max"),
+                        rs.getDouble("last_weight"), rs.getDate("last_date").toLocalDate()));
+            }
+        } catch (SQLException error) {
+            error.printStackTrace();
+        }
+        return rollups;
+    }
+
+    /**
+     * Summarises a user's health data over a date range from the daily rollups, e.g. the last 30 days.
+     *
+     * @param userId The ID of the user.
+     * @param from   The first date to include.
+     * @param to     The last date to include.
+     * @return A rollup with period "range" covering the dates, or null if the user has no readings in the range.
+     */
+    public HealthRollup getSummary(int userId, LocalDate from, LocalDate to) {
+        HealthRollup summary = null;
+
+        String query = "SELECT sum(reading_count) AS reading_count, sum(steps_sum) AS steps_sum, min(steps_min) AS steps_min, max(steps_max) AS steps_max, " +
+                "sum(heart_rate_sum) AS heart_rate_sum, min(heart_rate_min) AS heart_rate_min, max(heart_rate_max) AS heart_rate_max, " +
+                "sum(weight_sum) AS weight_sum, min(weight_min) AS weight_min, max(weight_max) AS weight_max, " +
+                "(array_agg(last_weight ORDER BY last_date DESC))[1] AS last_weight, max(last_date) AS last_date " +
+                "FROM health_data_rollups WHERE user_id = ? AND period = 'day' AND period_start >= ? AND period_start <= ?";
+
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
+            statement.setInt(1, userId);
+            statement.setDate(2, Date.valueOf(from));
+            statement.setDate(3, Date.valueOf(to));
+            ResultSet rs = statement.executeQuery();
+            if (rs.next() && rs.getDate("last_date") != null) {
+                summary = new HealthRollup(userId, "range", from,
+                        rs.getInt("reading_count"), rs.getLong("steps_sum"), rs.getInt("steps_min"), rs.getInt("steps_max"),
+                        rs.getLong("heart_rate_sum"), rs.getInt("heart_rate_min"), rs.getInt("heart_rate_max"),
+                        rs.getDouble("weight_sum"), rs.getDouble("weight_min"), rs.getDouble("weight_max"),
+                        rs.getDouble("last_weight"), rs.getDate("last_date").toLocalDate());
+            }
+        } catch (SQLException error) {
+            error.printStackTrace();
+        }
+        return summary;
+    }
+
+    /**
+     * Gets the first date of the period a date falls in.
+     *
+     * @param period DAY or WEEK.
+     * @param date   The date.
+     * @return The date itself for DAY, the Monday of its week for WEEK.
+     */
+    public static LocalDate periodStart(String period, LocalDate date) {
+        return WEEK.equals(period) ? date.with(DayOfWeek.MONDAY) : date;
+    }
+}
@@ -0,0 +1,432 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The HealthDataSeries class holds one user's health data in memory as parallel primitive arrays ordered by date,
+ * one array per field, instead of one HealthData object per reading.
+ * Weight and height are kept in tenths, the precision of the health_data columns, so they come back exactly as stored.
+ * A reading takes 20 bytes here against roughly 76 bytes for a HealthData with its LocalDate and list slot, about
+ * a quarter. Plain arrays of these fields cannot get much smaller; HealthDataArchive packs a series several times
+ * tighter, at the cost of reading it in order.
+ */
+public class HealthDataSeries {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int userId;
+    private int size = 0;
+    private int[] ids;
+    private int[] epochDays;
+    private int[] weightTenths;
+    private short[] heightTenths;
+    private int[] steps;
+    private short[] heartRates;
+
+    /**
+     * Constructs an empty HealthDataSeries for a user.
+     *
+     * @param userId The ID of the user the readings belong to.
+     */
+    public HealthDataSeries(int userId) {
+        this(userId, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty HealthDataSeries for a user with room for the given number of readings.
+     *
+     * @param userId   The ID of the user the readings belong to.
+     * @param capacity The number of readings to allocate space for.
+     */
+    public HealthDataSeries(int userId, int capacity) {
+        this.userId = userId;
+        capacity = Math.max(capacity, 1);
+        this.ids = new int[capacity];
+        this.epochDays = new int[capacity];
+        this.weightTenths = new int[capacity];
+        this.heightTenths = new short[capacity];
+        this.steps = new int[capacity];
+        this.heartRates = new short[capacity];
+    }
+
+    /**
+     * Creates a series from HealthData objects.
+     *
+     * @param userId     The ID of the user the readings belong to.
+     * @param healthData The readings, in any order. Readings of other users are ignored.
+     * @return A series holding the readings.
+     */
+    public static HealthDataSeries fromHealthData(int userId, Collection<HealthData> healthData) {
+        HealthDataSeries series = new HealthDataSeries(userId, healthData.size());
+        for (HealthData data : healthData) {
+            if (data.getUserId() == userId) {
+                series.append(data);
+            }
+        }
+        return series;
+    }
+
+    /**
+     * Gets the ID of the user the readings belong to.
+     *
+     * @return The ID of the user.
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Gets the number of readings in the series.
+     *
+     * @return The number of readings.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds a reading to the series. A reading dated before the last one is inserted in date order.
+     *
+     * @param healthData The reading to add.
+     */
+    public void append(HealthData healthData) {
+        if (healthData.getUserId() != userId) {
+            throw new IllegalArgumentException("Reading belongs to user " + healthData.getUserId() + ", not " + userId);
+        }
+        append(healthData.getId(), (int) HealthDataDao.dateOrToday(healthData).toEpochDay(), healthData.getWeight(),
+                healthData.getHeight(), healthData.getSteps(), toHeartRate(healthData.getHeartRate()));
+    }
+
+    /**
+     * Adds a reading to the series. A reading dated before the last one is inserted in date order.
+     *
+     * @param id        The ID of the health data entry.
+     * @param epochDay  The date of the reading as days since 1970-01-01.
+     * @param weight    The weight of the user, rounded to a tenth as the database stores it.
+     * @param height    The height of the user, rounded to a tenth as the database stores it.
+     * @param stepCount The number of steps taken by the user.
+     * @param heartRate The heart rate of the user.
+     */
+    public void append(int id, int epochDay, double weight, double height, int stepCount, short heartRate) {
+        appendTenths(id, epochDay, toWeightTenths(weight), toHeightTenths(height), stepCount, heartRate);
+    }
+
+    /**
+     * Adds a reading whose weight and height are already in tenths. A reading dated before the last one is inserted in date order.
+     *
+     * @param id           The ID of the health data entry.
+     * @param epochDay     The date of the reading as days since 1970-01-01.
+     * @param weightTenths The weight of the user in tenths.
+     * @param heightTenths The height of the user in tenths.
+     * @param stepCount    The number of steps taken by the user.
+     * @param heartRate    The heart rate of the user.
+     */
+    public synchronized void appendTenths(int id, int epochDay, int weightTenths, short heightTenths, int stepCount, short heartRate) {
+        if (size == ids.length) {
+            grow();
+        }
+        int index = size;
+        if (size > 0 && epochDays[size - 1] > epochDay) {
+            index = upperBound(epochDay);
+            int moved = size - index;
+            System.arraycopy(ids, index, ids, index + 1, moved);
+            System.arraycopy(epochDays, index, epochDays, index + 1, moved);
+            System.arraycopy(this.weightTenths, index, this.weightTenths, index + 1, moved);
+            System.arraycopy(this.heightTenths, index, this.heightTenths, index + 1, moved);
+            System.arraycopy(steps, index, steps, index + 1, moved);
+            System.arraycopy(heartRates, index, heartRates, index + 1, moved);
+        }
+        ids[index] = id;
+        epochDays[index] = epochDay;
+        this.weightTenths[index] = weightTenths;
+        this.heightTenths[index] = heightTenths;
+        steps[index] = stepCount;
+        heartRates[index] = heartRate;
+        size++;
+    }
+
+    /**
+     * Adds a reading unless the series already has one with the same ID on the same date.
+     *
+     * @param healthData The reading to add.
+     * @return true if it was added.
+     */
+    public synchronized boolean appendIfAbsent(HealthData healthData) {
+        int epochDay = (int) HealthDataDao.dateOrToday(healthData).toEpochDay();
+        for (int i = lowerBound(epochDay), end = upperBound(epochDay); i < end; i++) {
+            if (ids[i] == healthData.getId()) {
+                return false;
+            }
+        }
+        append(healthData);
+        return true;
+    }
+
+    /**
+     * Shrinks the arrays to the number of readings, freeing the room left for appends.
+     */
+    public synchronized void trimToSize() {
+        if (size < ids.length) {
+            resize(Math.max(size, 1));
+        }
+    }
+
+    /**
+     * Gets the reading at a position as a HealthData object.
+     *
+     * @param index The position of the reading, 0 being the oldest.
+     * @return The reading.
+     */
+    public synchronized HealthData toHealthData(int index) {
+        checkIndex(index);
+        return new HealthData(ids[index], userId, weightTenths[index] / 10.0, heightTenths[index] / 10.0, steps[index], heartRates[index],
+                LocalDate.ofEpochDay(epochDays[index]));
+    }
+
+    /**
+     * Gets every reading in the series as HealthData objects, oldest first.
+     *
+     * @return A list of the readings.
+     */
+    public synchronized List<HealthData> toHealthDataList() {
+        List<HealthData> healthDataList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            healthDataList.add(toHealthData(i));
+        }
+        return healthDataList;
+    }
+
+    /**
+     * Gets the ID of the reading at a position.
+     *
+     * @param index The position of the reading.
+     * @return The ID of the health data entry.
+     */
+    public synchronized int getId(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    /**
+     * Gets the date of the reading at a position.
+     *
+     * @param index The position of the reading.
+     * @return The date as days since 1970-01-01.
+     */
+    public synchronized int getEpochDay(int index) {
+        checkIndex(index);
+        return epochDays[index];
+    }
+
+    /**
+     * Gets the weight of the reading at a position.
+     *
+     * @param index The position of the reading.
+     * @return The weight.
+     */
+    public synchronized double getWeight(int index) {
+        checkIndex(index);
+        return weightTenths[index] / 10.0;
+    }
+
+    /**
+     * Gets the weight of the reading at a position in tenths.
+     *
+     * @param index The position of the reading.
+     * @return The weight times ten.
+     */
+    public synchronized int getWeightTenths(int index) {
+        checkIndex(index);
+        return weightTenths[index];
+    }
+
+    /**
+     * Gets the height of the reading at a position.
+     *
+     * @param index The position of the reading.
+     * @return The height.
+     */
+    public synchronized double getHeight(int index) {
+        checkIndex(index);
+        return heightTenths[index] / 10.0;
+    }
+
+    /**
+     * Gets the height of the reading at a position in tenths.
+     *
+     * @param index The position of the reading.
+     * @return The height times ten.
+     */
+    public synchronized int getHeightTenths(int index) {
+        checkIndex(index);
+        return heightTenths[index];
+    }
+
+    /**
+     * Gets the step count of the reading at a position.
+     *
+     * @param index The position of the reading.
+     * @return The number of steps.
+     */
+    public synchronized int getSteps(int index) {
+        checkIndex(index);
+        return steps[index];
+    }
+
+    /**
+     * Gets the heart rate of the reading at a position.
+     *
+     * @param index The position of the reading.
+     * @return The heart rate.
+     */
+    public synchronized int getHeartRate(int index) {
+        checkIndex(index);
+        return heartRates[index];
+    }
+
+    /**
+     * Copies the readings dated within a range into a new series.
+     *
+     * @param from The first date to include.
+     * @param to   The last date to include.
+     * @return A series holding only the readings in the range.
+     */
+    public synchronized HealthDataSeries slice(LocalDate from, LocalDate to) {
+        int start = lowerBound((int) from.toEpochDay());
+        int end = upperBound((int) to.toEpochDay());
+        int length = Math.max(0, end - start);
+
+        HealthDataSeries slice = new HealthDataSeries(userId, length);
+        System.arraycopy(ids, start, slice.ids, 0, length);
+        System.arraycopy(epochDays, start, slice.epochDays, 0, length);
+        System.arraycopy(weightTenths, start, slice.weightTenths, 0, length);
+        System.arraycopy(heightTenths, start, slice.heightTenths, 0, length);
+        System.arraycopy(steps, start, slice.steps, 0, length);
+        System.arraycopy(heartRates, start, slice.heartRates, 0, length);
+        slice.size = length;
+        return slice;
+    }
+
+    /**
+     * Aggregates the readings dated within a range, in one pass over the arrays.
+     *
+     * @param from The first date to include.
+     * @param to   The last date to include.
+     * @return A rollup with period "range" covering the dates, or null if there are no readings in the range.
+     */
+    public synchronized HealthRollup summarize(LocalDate from, LocalDate to) {
+        int start = lowerBound((int) from.toEpochDay());
+        int end = upperBound((int) to.toEpochDay());
+        if (start >= end) {
+            return null;
+        }
+
+        long stepsSum = 0;
+        int stepsMin = Integer.MAX_VALUE;
+        int stepsMax = Integer.MIN_VALUE;
+        long heartRateSum = 0;
+        int heartRateMin = Integer.MAX_VALUE;
+        int heartRateMax = Integer.MIN_VALUE;
+        long weightSum = 0;
+        int weightMin = Integer.MAX_VALUE;
+        int weightMax = Integer.MIN_VALUE;
+        for (int i = start; i < end; i++) {
+            stepsSum += steps[i];
+            stepsMin = Math.min(stepsMin, steps[i]);
+            stepsMax = Math.max(stepsMax, steps[i]);
+            heartRateSum += heartRates[i];
+            heartRateMin = Math.min(heartRateMin, heartRates[i]);
+            heartRateMax = Math.max(heartRateMax, heartRates[i]);
+            weightSum += weightTenths[i];
+            weightMin = Math.min(weightMin, weightTenths[i]);
+            weightMax = Math.max(weightMax, weightTenths[i]);
+        }
+        return new HealthRollup(userId, "range", from, end - start, stepsSum, stepsMin, stepsMax,
+                heartRateSum, heartRateMin, heartRateMax, weightSum / 10.0, weightMin / 10.0, weightMax / 10.0,
+                weightTenths[end - 1] / 10.0, LocalDate.ofEpochDay(epochDays[end - 1]));
+    }
+
+    // First position whose date is on or after epochDay.
+    private int lowerBound(int epochDay) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (epochDays[mid] < epochDay) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // First position whose date is after epochDay.
+    private int upperBound(int epochDay) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (epochDays[mid] <= epochDay) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void grow() {
+        resize(ids.length + (ids.length >> 1) + 1);
+    }
+
+    private void resize(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        epochDays = Arrays.copyOf(epochDays, capacity);
+        weightTenths = Arrays.copyOf(weightTenths, capacity);
+        heightTenths = Arrays.copyOf(heightTenths, capacity);
+        steps = Arrays.copyOf(steps, capacity);
+        heartRates = Arrays.copyOf(heartRates, capacity);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+
+    private static int toWeightTenths(double weight) {
+        long tenths = Math.round(weight * 10);
+        if (tenths < 0 || tenths > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Weight out of range: " + weight);
+        }
+        return (int) tenths;
+    }
+
+    private static short toHeightTenths(double height) {
+        long tenths = Math.round(height * 10);
+        if (tenths < 0 || tenths > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Height out of range: " + height);
+        }
+        return (short) tenths;
+    }
+
+    private static short toHeartRate(int heartRate) {
+        if (heartRate < 0 || heartRate > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Heart rate out of range: " + heartRate);
+        }
+        return (short) heartRate;
+    }
+
+    /**
+     * Returns a string representation of the HealthDataSeries object.
+     *
+     * @return A string representation of the HealthDataSeries object.
+     */
+    @Override
+    public synchronized String toString() {
+        return ("User [" + userId + "]: " + size + " readings" +
+        (size == 0 ? "" : " from " + LocalDate.ofEpochDay(epochDays[0]) + " to " + LocalDate.ofEpochDay(epochDays[size - 1])));
+    }
+}
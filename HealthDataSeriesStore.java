@@ -0,0 +1,177 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * The HealthDataSeriesStore class keeps the recent health data of many users in memory, one HealthDataSeries per user,
+ * for analytics that would otherwise re-read the same history from the database.
+ * A user's series holds the readings of the last historyDays days, loaded on first use. The store registers itself
+ * with its HealthDataDao, which appends new readings to loaded series and evicts a user whose readings are updated
+ * or deleted. Readings that arrive while a user's history is loading are held and added once it is done.
+ */
+public class HealthDataSeriesStore {
+    private static final int DEFAULT_HISTORY_DAYS = 90;
+
+    private final ConcurrentMap<Integer, HealthDataSeries> seriesByUser = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, PendingLoad> loading = new ConcurrentHashMap<>();
+    private final HealthDataDao healthDataDao;
+    private final int historyDays;
+
+    /**
+     * Constructs a HealthDataSeriesStore holding the last 90 days of each user's readings.
+     *
+     * @param healthDataDao The DAO used to read a user's history when it is first requested.
+     */
+    public HealthDataSeriesStore(HealthDataDao healthDataDao) {
+        this(healthDataDao, DEFAULT_HISTORY_DAYS);
+    }
+
+    /**
+     * Constructs a HealthDataSeriesStore and registers it with the DAO, so readings written through the DAO
+     * keep the loaded series up to date.
+     *
+     * @param healthDataDao The DAO used to read a user's history when it is first requested.
+     * @param historyDays   How many days of readings, up to today, are kept per user.
+     */
+    public HealthDataSeriesStore(HealthDataDao healthDataDao, int historyDays) {
+        if (historyDays < 1) {
+            throw new IllegalArgumentException("History days must be at least 1");
+        }
+        this.healthDataDao = healthDataDao;
+        this.historyDays = historyDays;
+        healthDataDao.setSeriesStore(this);
+    }
+
+    /**
+     * Gets a user's series, loading the user's recent history from the database on first use.
+     * Threads asking for a user whose history is already loading wait for that load instead of running their own.
+     *
+     * @param userId The ID of the user.
+     * @return The user's series.
+     * @throws IllegalStateException If the history could not be read.
+     */
+    public HealthDataSeries get(int userId) {
+        HealthDataSeries series = seriesByUser.get(userId);
+        if (series != null) {
+            return series;
+        }
+        PendingLoad mine = new PendingLoad();
+        PendingLoad other = loading.putIfAbsent(userId, mine);
+        if (other != null) {
+            try {
+                return other.result.join();
+            } catch (CompletionException error) {
+                throw (RuntimeException) error.getCause();
+            }
+        }
+        try {
+            // Loaded outside the map, since computeIfAbsent would hold a lock on the map for the whole query.
+            series = seriesByUser.get(userId);
+            if (series == null) {
+                series = load(userId);
+                synchronized (mine) {
+                    // Readings committed during the load may also have been read by it, so only add the missing ones.
+                    for (HealthData healthData : mine.readings) {
+                        series.appendIfAbsent(healthData);
+                    }
+                    if (!mine.stale) {
+                        seriesByUser.put(userId, series);
+                    }
+                    mine.done = true;
+                }
+            }
+            mine.result.complete(series);
+            return series;
+        } catch (RuntimeException error) {
+            mine.result.completeExceptionally(error);
+            throw error;
+        } finally {
+            loading.remove(userId, mine);
+        }
+    }
+
+    /**
+     * Adds a new reading to its user's series if that series is loaded or loading.
+     * Readings older than the history window are left out.
+     *
+     * @param healthData The new reading.
+     */
+    public void append(HealthData healthData) {
+        if (HealthDataDao.dateOrToday(healthData).isBefore(windowStart())) {
+            return;
+        }
+        int userId = healthData.getUserId();
+        HealthDataSeries series = seriesByUser.get(userId);
+        if (series == null) {
+            PendingLoad pending = loading.get(userId);
+            if (pending != null) {
+                synchronized (pending) {
+                    if (!pending.done) {
+                        pending.readings.add(healthData);
+                        return;
+                    }
+                }
+            }
+            // The load may have finished since the first look.
+            series = seriesByUser.get(userId);
+        }
+        if (series != null) {
+            series.appendIfAbsent(healthData);
+        }
+    }
+
+    /**
+     * Drops a user's series, so the next get reloads it.
+     *
+     * @param userId The ID of the user.
+     */
+    public void evict(int userId) {
+        seriesByUser.remove(userId);
+        PendingLoad pending = loading.get(userId);
+        if (pending != null) {
+            synchronized (pending) {
+                // A load that started before the change may have read the old readings, so it must not be kept.
+                pending.stale = true;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of users whose series are loaded.
+     *
+     * @return The number of loaded users.
+     */
+    public int size() {
+        return seriesByUser.size();
+    }
+
+    private LocalDate windowStart() {
+        return LocalDate.now().minusDays(historyDays - 1);
+    }
+
+    // Streams the history straight into the arrays, so no full list of HealthData objects is built.
+    private HealthDataSeries load(int userId) {
+        HealthDataSeries series = new HealthDataSeries(userId);
+        try (Stream<HealthData> history = healthDataDao.streamHealthDataByUserIdSince(userId, windowStart())) {
+            history.forEach(series::append);
+        } catch (SQLException error) {
+            throw new IllegalStateException("Failed to read the health data of user " + userId, error);
+        }
+        series.trimToSize();
+        return series;
+    }
+
+    // A load in progress: the readings appended meanwhile, and the series once it is done.
+    private static class PendingLoad {
+        private final List<HealthData> readings = new ArrayList<>();
+        private final CompletableFuture<HealthDataSeries> result = new CompletableFuture<>();
+        private boolean done;
+        private boolean stale;
+    }
+}
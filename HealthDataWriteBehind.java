@@ -0,0 +1,379 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The HealthDataWriteBehind class buffers health readings in memory and writes them to the database in the background.
+ * Readings go into a bounded ring buffer and a single writer thread inserts them with createHealthDataBatch,
+ * once enough have built up or the oldest has waited long enough. Each reading's future completes with its
+ * generated ID only after the batch it was in has committed, or fails with the row's SQLException. If the database
+ * cannot be reached and the DAO has a write-ahead log, the batch's readings are logged and their futures complete
+ * with 0 instead.
+ * <p>
+ * When the database falls behind and the buffer fills up, the overflow policy decides what happens to new readings:
+ * BLOCK makes the caller wait for room up to a timeout, REJECT fails the reading's future straight away.
+ * Either way a reading that does not fit, or arrives after close, fails with RejectedExecutionException.
+ * If the writer thread is interrupted, the buffered readings fail the same way and the buffer closes.
+ * A shutdown hook flushes whatever is still buffered when the JVM exits.
+ */
+public class HealthDataWriteBehind {
+    /**
+     * What to do with a new reading when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait for the writer to make room, up to the block timeout. */
+        BLOCK,
+        /** Fail the reading's future without waiting. */
+        REJECT
+    }
+
+    private static final int DEFAULT_CAPACITY = 10_000;
+    private static final int DEFAULT_FLUSH_SIZE = 500;
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+    private static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 5000;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30_000;
+
+    private final HealthDataDao healthDataDao;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+
+    // The ring buffer: count entries starting at head, wrapping around.
+    private final HealthData[] readings;
+    private final CompletableFuture<Integer>[] futures;
+    private final long[] bufferedAt;
+    private int head = 0;
+    private int count = 0;
+    private boolean flushRequested = false;
+    private boolean closed = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong logged = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    private final Thread writer;
+    private final Thread shutdownHook;
+
+    /**
+     * Constructs a HealthDataWriteBehind buffering up to 10,000 readings, flushing every 500 readings or 200 ms,
+     * and blocking callers for up to 5 seconds when full.
+     *
+     * @param healthDataDao The DAO the readings are written with.
+     */
+    public HealthDataWriteBehind(HealthDataDao healthDataDao) {
+        this(healthDataDao, DEFAULT_CAPACITY, DEFAULT_FLUSH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS,
+                OverflowPolicy.BLOCK, DEFAULT_BLOCK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructs a HealthDataWriteBehind and starts its writer thread.
+     *
+     * @param healthDataDao       The DAO the readings are written with.
+     * @param capacity            The most readings buffered at once.
+     * @param flushSize           Write as soon as this many readings are buffered, and at most this many in one batch.
+     * @param flushIntervalMillis Write once the oldest buffered reading has waited this long, in milliseconds.
+     * @param overflowPolicy      What to do with a new reading when the buffer is full.
+     * @param blockTimeoutMillis  How long BLOCK waits for room before failing the reading, in milliseconds.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public HealthDataWriteBehind(HealthDataDao healthDataDao, int capacity, int flushSize, long flushIntervalMillis,
+                                 OverflowPolicy overflowPolicy, long blockTimeoutMillis) {
+        if (capacity < 1 || flushSize < 1) {
+            throw new IllegalArgumentException("Capacity and flush size must be at least 1");
+        }
+        this.healthDataDao = healthDataDao;
+        this.flushSize = Math.min(flushSize, capacity);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        this.readings = new HealthData[capacity];
+        this.futures = new CompletableFuture[capacity];
+        this.bufferedAt = new long[capacity];
+
+        writer = new Thread(this::run, "health-data-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+        shutdownHook = new Thread(() -> close(SHUTDOWN_TIMEOUT_MILLIS), "health-data-write-behind-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Buffers a reading to be written in the background.
+     *
+     * @param healthData The health data to be inserted.
+     * @return A future completing with the generated ID once the reading is committed, with 0 if it was logged to the
+     *         write-ahead log instead, or failing with the SQLException that stopped it, or RejectedExecutionException
+     *         if it did not fit in the buffer.
+     */
+    public CompletableFuture<Integer> submit(HealthData healthData) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (closed || (count == readings.length && !awaitRoom())) {
+                rejected.incrementAndGet();
+                future.completeExceptionally(new RejectedExecutionException(
+                        closed ? "The write-behind buffer is closed"
+                                : "The write-behind buffer is full (" + readings.length + " readings)"));
+                return future;
+            }
+            int tail = (head + count) % readings.length;
+            readings[tail] = healthData;
+            futures[tail] = future;
+            bufferedAt[tail] = System.nanoTime();
+            count++;
+            submitted.incrementAndGet();
+            if (count == 1 || count >= flushSize) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Asks the writer to write everything buffered now instead of waiting for the batch to fill up.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            flushRequested = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting readings and waits for the buffered ones to be written.
+     *
+     * @param timeoutMillis How long to wait, in milliseconds.
+     * @return true if everything buffered was written or failed in time.
+     */
+    public boolean close(long timeoutMillis) {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+            // Wake callers waiting for room so they fail instead of waiting out their timeout.
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException alreadyShuttingDown) {
+                // The hook is running or about to, which is fine.
+            }
+        }
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !writer.isAlive();
+    }
+
+    /**
+     * Gets the number of readings accepted into the buffer.
+     *
+     * @return The number of submitted readings.
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * Gets the number of readings committed to the database.
+     *
+     * @return The number of written readings.
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * Gets the number of buffered readings the database refused.
+     *
+     * @return The number of failed readings.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Gets the number of buffered readings logged to the write-ahead log because the database could not be reached.
+     *
+     * @return The number of logged readings.
+     */
+    public long getLoggedCount() {
+        return logged.get();
+    }
+
+    /**
+     * Gets the number of readings turned away because the buffer was full.
+     *
+     * @return The number of rejected readings.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Gets the number of batches written.
+     *
+     * @return The number of batches.
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Gets the number of readings waiting to be written.
+     *
+     * @return The number of buffered readings.
+     */
+    public int getBufferedCount() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits for room under the lock. Returns false if there is still none.
+    private boolean awaitRoom() {
+        if (overflowPolicy == OverflowPolicy.REJECT) {
+            return false;
+        }
+        long remaining = blockTimeoutNanos;
+        try {
+            while (count == readings.length && !closed) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = notFull.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !closed;
+    }
+
+    private void run() {
+        List<HealthData> batch = new ArrayList<>(flushSize);
+        List<CompletableFuture<Integer>> batchFutures = new ArrayList<>(flushSize);
+        while (true) {
+            lock.lock();
+            try {
+                if (!awaitBatch()) {
+                    return;
+                }
+                int size = Math.min(count, flushSize);
+                for (int i = 0; i < size; i++) {
+                    batch.add(readings[head]);
+                    batchFutures.add(futures[head]);
+                    readings[head] = null;
+                    futures[head] = null;
+                    head = (head + 1) % readings.length;
+                }
+                count -= size;
+                if (count == 0) {
+                    flushRequested = false;
+                }
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                failBuffered();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            write(batch, batchFutures);
+            batch.clear();
+            batchFutures.clear();
+        }
+    }
+
+    // Closes the buffer and fails everything still in it, under the lock, when the writer stops early.
+    private void failBuffered() {
+        closed = true;
+        RejectedExecutionException error = new RejectedExecutionException("The write-behind writer was interrupted");
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % readings.length;
+            futures[index].completeExceptionally(error);
+            readings[index] = null;
+            futures[index] = null;
+        }
+        failed.addAndGet(count);
+        count = 0;
+        // Callers waiting for room fail instead of waiting out their timeout.
+        notFull.signalAll();
+    }
+
+    // Waits under the lock until a batch is due. Returns false once closed and empty.
+    private boolean awaitBatch() throws InterruptedException {
+        while (true) {
+            if (count == 0) {
+                if (closed) {
+                    return false;
+                }
+                notEmpty.await();
+                continue;
+            }
+            if (count >= flushSize || flushRequested || closed) {
+                return true;
+            }
+            long wait = bufferedAt[head] + flushIntervalNanos - System.nanoTime();
+            if (wait <= 0) {
+                return true;
+            }
+            notEmpty.awaitNanos(wait);
+        }
+    }
+
+    // Writes a batch outside the lock, so callers can keep buffering while it commits.
+    private void write(List<HealthData> batch, List<CompletableFuture<Integer>> batchFutures) {
+        HealthDataBatchResult result;
+        try {
+            result = healthDataDao.createHealthDataBatch(batch);
+        } catch (RuntimeException error) {
+            failed.addAndGet(batch.size());
+            for (CompletableFuture<Integer> future : batchFutures) {
+                future.completeExceptionally(error);
+            }
+            return;
+        }
+        batches.incrementAndGet();
+        int[] generatedIds = result.getGeneratedIds();
+        for (int i = 0; i < batchFutures.size(); i++) {
+            SQLException error = result.getFailures().get(i);
+            if (result.getLogged().contains(i)) {
+                logged.incrementAndGet();
+                batchFutures.get(i).complete(0);
+            } else if (error == null) {
+                written.incrementAndGet();
+                batchFutures.get(i).complete(generatedIds[i]);
+            } else {
+                failed.incrementAndGet();
+                batchFutures.get(i).completeExceptionally(error);
+            }
+        }
+    }
+}
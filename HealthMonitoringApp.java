@@ -1,11 +1,10 @@
 // import com.DataBaseConnection;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.mindrot.jbcrypt.BCrypt;
-
 /**
  * The main application class for the Health Monitoring System App.
  * This class provides methods to test the functionalities of the system,
@@ -14,7 +13,7 @@ import org.mindrot.jbcrypt.BCrypt;
  */
 public class HealthMonitoringApp {
 
-    private static UserDao userDao = new UserDao();
+    private static UserDao userDao = CachingUserDao.getInstance();
     private static HealthDataDao healthDataDao = new HealthDataDao();
     private static RecommendationSystem recommendationSystem = new RecommendationSystem();
     private static MedicineReminderManager medicineReminderManager = new MedicineReminderManager();
@@ -45,6 +44,18 @@ public class HealthMonitoringApp {
      */
     public static void main(String[] args) {
         System.out.println();
+        // Pick the BCrypt cost for this machine unless one was configured.
+        if (System.getProperty("credentials.bcryptCost") == null) {
+            int cost = CredentialService.getInstance().calibrate(Long.getLong("credentials.targetMillis", 250));
+            System.out.println("BCrypt cost calibrated to " + cost + ".");
+        }
+        // Keep writes on local disk while the database is down, with -Dwal.enabled=true.
+        if (Boolean.getBoolean("wal.enabled")) {
+            WriteAheadLog writeAheadLog = WriteAheadLog.getInstance();
+            healthDataDao.setWriteAheadLog(writeAheadLog);
+            medicineReminderManager.setWriteAheadLog(writeAheadLog);
+            writeAheadLog.startReplay(healthDataDao, medicineReminderManager, Long.getLong("wal.replaySeconds", 30));
+        }
     //    DatabaseConnection databaseConnection = new DatabaseConnection();
         UserDao userDao = new UserDao();
 
@@ -100,7 +111,8 @@ public class HealthMonitoringApp {
         }
         System.out.println();
 
-        // Generate recommendations
+        // Generate recommendations, with the rules from the database if they can be loaded
+        recommendationSystem.reloadRules();
         List<String> recommendationsUserOne = recommendationSystem.generateRecommendations(healthDataOne);
         System.out.println("Health Recommendations:");
         System.out.println();
@@ -110,6 +122,14 @@ public class HealthMonitoringApp {
         }
         System.out.println();
 
+        // Generate and store recommendations for every user from their latest reading
+        try {
+            System.out.println(new RecommendationEngine(recommendationSystem).run());
+        } catch (SQLException error) {
+            error.printStackTrace();
+        }
+        System.out.println();
+
         // Add medicine reminders
         MedicineReminder medicineReminderOne = new MedicineReminder(3, "Ibuprofen", "400mg Twice Daily", "12:00 PM, 8:00 PM", LocalDate.of(2024, 1, 10), LocalDate.of(2024, 1, 30));
         boolean addReminderOne = medicineReminderManager.storeReminder(medicineReminderOne);
@@ -151,6 +171,8 @@ public class HealthMonitoringApp {
         //test doctor portal (call testDoctorPortal() here)
         testDoctorPortal();
         System.out.println();
+
+        DatabaseConnection.shutdown();
     }
     
 
@@ -232,22 +254,14 @@ public class HealthMonitoringApp {
             return;
         }
         //implement method to login user.
-        User user = userDao.getUserByEmail(email);
-        
-        if (user != null) {
-            // Compare the stored hashed password with the given password and return result
-            String hashedPassword = user.getPassword();
-
-            // Checking if the password matches the hashed password from database.
-            boolean passwordVerification = BCrypt.checkpw(password, hashedPassword);
-
-            if (passwordVerification) {
-                System.out.println("Login successful.");
-            } else {
-                System.out.println("Login failed, incorrect email or password. Please try again.");
-            };
+        // The hash is read from the database, not the user cache, so a changed password or deleted account
+        // stops working straight away. Missing users fail the same way as wrong passwords.
+        boolean passwordVerification = userDao.verifyPassword(email, password);
+
+        if (passwordVerification) {
+            System.out.println("Login successful.");
         } else {
-        System.out.println("Error - User does not exist.");
+            System.out.println("Login failed, incorrect email or password. Please try again.");
         }
     }
 
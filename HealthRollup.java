@@ -0,0 +1,235 @@
+import java.time.LocalDate;
+
+/**
+ * The HealthRollup class holds the aggregated health data of one user over one period (a day, a week or a date range).
+ */
+public class HealthRollup {
+    private int userId;
+    private String period;
+    private LocalDate periodStart;
+    private int readingCount;
+    private long stepsSum;
+    private int stepsMin;
+    private int stepsMax;
+    private long heartRateSum;
+    private int heartRateMin;
+    private int heartRateMax;
+    private double weightSum;
+    private double weightMin;
+    private double weightMax;
+    private double lastWeight;
+    private LocalDate lastDate;
+
+    /**
+     * Constructs a HealthRollup object with the specified attributes.
+     *
+     * @param userId       The ID of the user the rollup belongs to.
+     * @param period       The length of the period, HealthDataRollupDao.DAY, HealthDataRollupDao.WEEK or "range".
+     * @param periodStart  The first date of the period.
+     * @param readingCount The number of readings in the period.
+     * @param stepsSum     The total steps over the period.
+     * @param stepsMin     The lowest step count in the period.
+     * @param stepsMax     The highest step count in the period.
+     * @param heartRateSum The sum of all heart rates in the period.
+     * @param heartRateMin The lowest heart rate in the period.
+     * @param heartRateMax The highest heart rate in the period.
+     * @param weightSum    The sum of all weights in the period.
+     * @param weightMin    The lowest weight in the period.
+     * @param weightMax    The highest weight in the period.
+     * @param lastWeight   The weight of the most recent reading in the period.
+     * @param lastDate     The date of the most recent reading in the period.
+     */
+    public HealthRollup(int userId, String period, LocalDate periodStart, int readingCount, long stepsSum, int stepsMin, int stepsMax,
+                        long heartRateSum, int heartRateMin, int heartRateMax, double weightSum, double weightMin, double weightMax,
+                        double lastWeight, LocalDate lastDate) {
+        this.userId = userId;
+        this.period = period;
+        this.periodStart = periodStart;
+        this.readingCount = readingCount;
+        this.stepsSum = stepsSum;
+        this.stepsMin = stepsMin;
+        this.stepsMax = stepsMax;
+        this.heartRateSum = heartRateSum;
+        this.heartRateMin = heartRateMin;
+        this.heartRateMax = heartRateMax;
+        this.weightSum = weightSum;
+        this.weightMin = weightMin;
+        this.weightMax = weightMax;
+        this.lastWeight = lastWeight;
+        this.lastDate = lastDate;
+    }
+
+    /**
+     * Gets the ID of the user the rollup belongs to.
+     *
+     * @return The ID of the user.
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Gets the length of the period.
+     *
+     * @return The period, "day", "week" or "range".
+     */
+    public String getPeriod() {
+        return period;
+    }
+
+    /**
+     * Gets the first date of the period.
+     *
+     * @return The first date of the period.
+     */
+    public LocalDate getPeriodStart() {
+        return periodStart;
+    }
+
+    /**
+     * Gets the number of readings in the period.
+     *
+     * @return The number of readings.
+     */
+    public int getReadingCount() {
+        return readingCount;
+    }
+
+    /**
+     * Gets the total steps over the period.
+     *
+     * @return The total steps.
+     */
+    public long getStepsSum() {
+        return stepsSum;
+    }
+
+    /**
+     * Gets the lowest step count in the period.
+     *
+     * @return The lowest step count.
+     */
+    public int getStepsMin() {
+        return stepsMin;
+    }
+
+    /**
+     * Gets the highest step count in the period.
+     *
+     * @return The highest step count.
+     */
+    public int getStepsMax() {
+        return stepsMax;
+    }
+
+    /**
+     * Gets the average step count of the readings in the period.
+     *
+     * @return The average step count.
+     */
+    public double getAverageSteps() {
+        return readingCount == 0 ? 0 : (double) stepsSum / readingCount;
+    }
+
+    /**
+     * Gets the sum of all heart rates in the period.
+     *
+     * @return The sum of the heart rates.
+     */
+    public long getHeartRateSum() {
+        return heartRateSum;
+    }
+
+    /**
+     * Gets the lowest heart rate in the period.
+     *
+     * @return The lowest heart rate.
+     */
+    public int getHeartRateMin() {
+        return heartRateMin;
+    }
+
+    /**
+     * Gets the highest heart rate in the period.
+     *
+     * @return The highest heart rate.
+     */
+    public int getHeartRateMax() {
+        return heartRateMax;
+    }
+
+    /**
+     * Gets the average heart rate of the readings in the period.
+     *
+     * @return The average heart rate.
+     */
+    public double getAverageHeartRate() {
+        return readingCount == 0 ? 0 : (double) heartRateSum / readingCount;
+    }
+
+    /**
+     * Gets the sum of all weights in the period.
+     *
+     * @return The sum of the weights.
+     */
+    public double getWeightSum() {
+        return weightSum;
+    }
+
+    /**
+     * Gets the lowest weight in the period.
+     *
+     * @return The lowest weight.
+     */
+    public double getWeightMin() {
+        return weightMin;
+    }
+
+    /**
+     * Gets the highest weight in the period.
+     *
+     * @return The highest weight.
+     */
+    public double getWeightMax() {
+        return weightMax;
+    }
+
+    /**
+     * Gets the average weight of the readings in the period.
+     *
+     * @return The average weight.
+     */
+    public double getAverageWeight() {
+        return readingCount == 0 ? 0 : weightSum / readingCount;
+    }
+
+    /**
+     * Gets the weight of the most recent reading in the period.
+     *
+     * @return The most recent weight.
+     */
+    public double getLastWeight() {
+        return lastWeight;
+    }
+
+    /**
+     * Gets the date of the most recent reading in the period.
+     *
+     * @return The date of the most recent reading.
+     */
+    public LocalDate getLastDate() {
+        return lastDate;
+    }
+
+    /**
+     * Returns a string representation of the HealthRollup object.
+     *
+     * @return A string representation of the HealthRollup object.
+     */
+    @Override
+    public String toString() {
+        return ("User [" + userId + "] " + period + " of " + periodStart + ": " + readingCount + " readings, " +
+        "avg steps " + getAverageSteps() + ", avg heart rate " + getAverageHeartRate() + ", avg weight " + getAverageWeight() +
+        ", last weight " + lastWeight);
+    }
+}
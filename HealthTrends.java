@@ -0,0 +1,124 @@
+/**
+ * The HealthTrends class holds a snapshot of a user's recent trends, as computed by TrendAnalyzer:
+ * the mean and standard deviation of heart rate and steps over the last 7 days, and how fast their weight
+ * changed over the last 30 days. Values that need more readings than were available are NaN.
+ */
+public class HealthTrends {
+    private final HealthData latestReading;
+    private final int shortWindowReadings;
+    private final double heartRateMean;
+    private final double heartRateStdDev;
+    private final double stepsMean;
+    private final double stepsStdDev;
+    private final int longWindowReadings;
+    private final double weightSlopePerWeek;
+
+    /**
+     * Constructs a HealthTrends object with the specified attributes.
+     *
+     * @param latestReading       The most recent reading the trends include.
+     * @param shortWindowReadings The number of readings in the 7 day window.
+     * @param heartRateMean       The mean heart rate over the 7 day window.
+     * @param heartRateStdDev     The standard deviation of the heart rate over the 7 day window.
+     * @param stepsMean           The mean step count over the 7 day window.
+     * @param stepsStdDev         The standard deviation of the step count over the 7 day window.
+     * @param longWindowReadings  The number of readings in the 30 day window.
+     * @param weightSlopePerWeek  The least squares slope of the weight over the 30 day window, in pounds per week.
+     */
+    public HealthTrends(HealthData latestReading, int shortWindowReadings, double heartRateMean, double heartRateStdDev,
+                        double stepsMean, double stepsStdDev, int longWindowReadings, double weightSlopePerWeek) {
+        this.latestReading = latestReading;
+        this.shortWindowReadings = shortWindowReadings;
+        this.heartRateMean = heartRateMean;
+        this.heartRateStdDev = heartRateStdDev;
+        this.stepsMean = stepsMean;
+        this.stepsStdDev = stepsStdDev;
+        this.longWindowReadings = longWindowReadings;
+        this.weightSlopePerWeek = weightSlopePerWeek;
+    }
+
+    /**
+     * Gets the most recent reading the trends include.
+     *
+     * @return The latest reading, or null if there were no readings.
+     */
+    public HealthData getLatestReading() {
+        return latestReading;
+    }
+
+    /**
+     * Gets the number of readings in the 7 day window.
+     *
+     * @return The number of readings.
+     */
+    public int getShortWindowReadings() {
+        return shortWindowReadings;
+    }
+
+    /**
+     * Gets the mean heart rate over the 7 day window.
+     *
+     * @return The mean heart rate, NaN if there were no readings.
+     */
+    public double getHeartRateMean() {
+        return heartRateMean;
+    }
+
+    /**
+     * Gets the standard deviation of the heart rate over the 7 day window.
+     *
+     * @return The standard deviation, NaN if there were fewer than 2 readings.
+     */
+    public double getHeartRateStdDev() {
+        return heartRateStdDev;
+    }
+
+    /**
+     * Gets the mean step count over the 7 day window.
+     *
+     * @return The mean step count, NaN if there were no readings.
+     */
+    public double getStepsMean() {
+        return stepsMean;
+    }
+
+    /**
+     * Gets the standard deviation of the step count over the 7 day window.
+     *
+     * @return The standard deviation, NaN if there were fewer than 2 readings.
+     */
+    public double getStepsStdDev() {
+        return stepsStdDev;
+    }
+
+    /**
+     * Gets the number of readings in the 30 day window.
+     *
+     * @return The number of readings.
+     */
+    public int getLongWindowReadings() {
+        return longWindowReadings;
+    }
+
+    /**
+     * Gets how fast the weight changed over the 30 day window.
+     *
+     * @return The slope in pounds per week, positive when gaining, NaN if there were too few readings to fit a line.
+     */
+    public double getWeightSlopePerWeek() {
+        return weightSlopePerWeek;
+    }
+
+    /**
+     * Returns a string representation of the HealthTrends object.
+     *
+     * @return A string representation of the HealthTrends object.
+     */
+    @Override
+    public String toString() {
+        return String.format("7 days (%d readings): heart rate %.1f +/- %.1f, steps %.0f +/- %.0f; " +
+                        "30 days (%d readings): weight %+.2f lb/week",
+                shortWindowReadings, heartRateMean, heartRateStdDev, stepsMean, stepsStdDev,
+                longWindowReadings, weightSlopePerWeek);
+    }
+}
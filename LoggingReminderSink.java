@@ -0,0 +1,56 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A ReminderSink that writes each notification as a line of text, to standard output or appended to a file.
+ * Meant for testing the dispatch pipeline without a real notification service.
+ */
+public class LoggingReminderSink implements ReminderSink {
+    private final Path file;
+
+    /**
+     * Constructs a LoggingReminderSink that prints to standard output.
+     */
+    public LoggingReminderSink() {
+        this(null);
+    }
+
+    /**
+     * Constructs a LoggingReminderSink that appends to a file, creating it if needed.
+     *
+     * @param file The file to append to, or null to print to standard output.
+     */
+    public LoggingReminderSink(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Writes one line per notification.
+     *
+     * @param notifications The notifications to deliver.
+     * @throws IOException If the file could not be written.
+     */
+    @Override
+    public void deliver(List<ReminderNotification> notifications) throws IOException {
+        if (file == null) {
+            StringBuilder lines = new StringBuilder();
+            for (ReminderNotification notification : notifications) {
+                lines.append("Reminder: ").append(notification).append(System.lineSeparator());
+            }
+            System.out.print(lines);
+            return;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (ReminderNotification notification : notifications) {
+                writer.write(notification.toString());
+                writer.newLine();
+            }
+        }
+    }
+}
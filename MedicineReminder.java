@@ -1,4 +1,5 @@
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 
 /**
  * The MedicineReminder class represents a medicine reminder and its details for a user.
@@ -11,6 +12,8 @@ public class MedicineReminder {
     private String schedule;
     private LocalDate startDate;
     private LocalDate endDate;
+    // Parsed from the schedule on first use, or read from the database, and dropped when the schedule changes.
+    private volatile ReminderSchedule compiledSchedule;
 
     // Constructor, getters, and setters
      /**
@@ -142,6 +145,7 @@ public class MedicineReminder {
      */
     public void setSchedule(String schedule) {
         this.schedule = schedule;
+        this.compiledSchedule = null;
     }
 
     /**
@@ -160,6 +164,7 @@ public class MedicineReminder {
      */
    public void setStartDate(LocalDate startDate) {
        this.startDate = startDate;
+       this.compiledSchedule = null;
    }
 
    /**
@@ -180,6 +185,47 @@ public class MedicineReminder {
        this.endDate = endDate;
    }
 
+   /**
+     * Gets the compiled form of the schedule, parsing the schedule string the first time.
+     *
+     * @return The compiled schedule.
+     */
+   public ReminderSchedule getCompiledSchedule() {
+       ReminderSchedule compiled = compiledSchedule;
+       if (compiled == null) {
+           compiled = ReminderSchedule.parse(schedule, startDate);
+           compiledSchedule = compiled;
+       }
+       return compiled;
+   }
+
+   /**
+     * Sets the compiled form of the schedule, for when it was stored alongside the schedule string.
+     *
+     * @param compiledSchedule The compiled schedule.
+     */
+   public void setCompiledSchedule(ReminderSchedule compiledSchedule) {
+       this.compiledSchedule = compiledSchedule;
+   }
+
+   /**
+     * Finds the next time the medicine is due after a given time, within the reminder's start and end dates.
+     *
+     * @param after The time to search after.
+     * @return The next time the reminder fires, or null if it does not fire again.
+     */
+   public LocalDateTime nextFireAfter(LocalDateTime after) {
+       LocalDateTime from = after;
+       if (startDate != null && from.isBefore(startDate.atStartOfDay())) {
+           from = startDate.atStartOfDay().minusMinutes(1);
+       }
+       LocalDateTime next = getCompiledSchedule().nextFireAfter(from);
+       if (next == null || (endDate != null && next.toLocalDate().isAfter(endDate))) {
+           return null;
+       }
+       return next;
+   }
+
    /**
      * Returns a string representation of the MedicineReminder object.
      *
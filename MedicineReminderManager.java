@@ -1,14 +1,25 @@
+import java.io.IOException;
 import java.sql.*;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 /**
  * The MedicineReminderManager class manages medicine reminders, including adding, retrieving reminders and specifically due reminders,
  * as well as updating reminders in the database.
  */
 public class MedicineReminderManager {
+    private static final int STREAM_FETCH_SIZE = 1000;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
     private List<MedicineReminder> reminders;
+    private volatile WriteAheadLog writeAheadLog;
+    private final CopyOnWriteArrayList<ReminderTimingWheel> timingWheels = new CopyOnWriteArrayList<>();
 
     /**
      * Constructs a MedicineReminderManager object with an empty list of reminders.
@@ -35,35 +46,17 @@ public class MedicineReminderManager {
     public List<MedicineReminder> getRemindersForUser(int userId) {
         List<MedicineReminder> userReminders = new ArrayList<>();
 
-        int id = 0;
-        int user_id = 0;
-        String medicineName = null;
-        String dosage = null;
-        String schedule = null;
-        LocalDate start_date = null;
-        LocalDate end_date = null;
-
         String query = "SELECT * FROM medicine_reminders WHERE user_id = ?";
 
-        try {
-            Connection db = DatabaseConnection.getCon();
-            PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
     
             statement.setInt(1, userId);
             ResultSet rs = statement.executeQuery();
 
             while (rs.next()) {
-                id = rs.getInt("id");
-                user_id = rs.getInt("user_id");
-                medicineName = rs.getString("medicine_name");
-                dosage = rs.getString("dosage");
-                schedule = rs.getString("schedule");
-                start_date = rs.getDate("start_date").toLocalDate();
-                end_date = rs.getDate("end_date").toLocalDate();
-
                 // Adding the created medicine reminder object to the list.
-                MedicineReminder medReminder = new MedicineReminder(id, user_id, medicineName, dosage, schedule, start_date, end_date);
-                userReminders.add(medReminder);
+                userReminders.add(mapReminder(rs));
             }
 
         } catch (SQLException error) {
@@ -81,38 +74,20 @@ public class MedicineReminderManager {
     public List<MedicineReminder> getDueReminders(int userId) {
         List<MedicineReminder> dueReminders = new ArrayList<>();
 
-        int id = 0;
-        int user_id = 0;
-        String medicineName = null;
-        String dosage = null;
-        String schedule = null;
-        LocalDate start_date = null;
-        LocalDate end_date = null;
-
         // Plus sign for code readability.
         // CURRENT_DATE is a built in SQL function to get the current date.
         // TO_TIMESTAMP converts the schedule entered as a String (varchar) to a date and time.
         String query = "SELECT * FROM medicine_reminders WHERE user_id = ? AND start_date <= CURRENT_DATE AND end_date >= CURRENT_DATE";
 
-        try {
-            Connection db = DatabaseConnection.getCon();
-            PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
     
             statement.setInt(1, userId);
             ResultSet rs = statement.executeQuery();
 
             while (rs.next()) {
-                id = rs.getInt("id");
-                user_id = rs.getInt("user_id");
-                medicineName = rs.getString("medicine_name");
-                dosage = rs.getString("dosage");
-                schedule = rs.getString("schedule");
-                start_date = rs.getDate("start_date").toLocalDate();
-                end_date = rs.getDate("end_date").toLocalDate();
-
                 // Adding the created medicine reminder object to the list.
-                MedicineReminder medReminder = new MedicineReminder(id, user_id, medicineName, dosage, schedule, start_date, end_date);
-                dueReminders.add(medReminder);
+                dueReminders.add(mapReminder(rs));
             }
 
         } catch (SQLException error) {
@@ -122,34 +97,257 @@ public class MedicineReminderManager {
         return dueReminders;
     }
 
+    /**
+     * Streams the reminders of every user that are active on a date, ordered by user.
+     * The stream holds a database connection until it is closed, so use it in a try-with-resources block.
+     *
+     * @param date The date the reminders must be active on.
+     * @return A stream of the active reminders, empty if they could not be read.
+     */
+    public Stream<MedicineReminder> streamActiveReminders(LocalDate date) {
+        String query = "SELECT * FROM medicine_reminders WHERE start_date <= ? AND end_date >= ? ORDER BY user_id, id";
+
+        try {
+            return ResultSetStream.open(query, STREAM_FETCH_SIZE, statement -> {
+                statement.setDate(1, Date.valueOf(date));
+                statement.setDate(2, Date.valueOf(date));
+            }, MedicineReminderManager::mapReminder);
+        } catch (SQLException error) {
+            error.printStackTrace();
+            return Stream.empty();
+        }
+    }
+
+    /**
+     * Streams every reminder time that falls in a window, across all users in one scan per day of the window.
+     * Workers can split the users between them: each passes the same shard count and its own shard number,
+     * and gets the reminders of the users whose ID modulo the shard count equals its shard.
+     * The stream holds a database connection until it is closed, so use it in a try-with-resources block.
+     *
+     * @param from       The start of the window, included, to the minute.
+     * @param window     The length of the window, whole minutes.
+     * @param shard      This worker's shard, from 0 to shardCount - 1.
+     * @param shardCount The number of workers splitting the scan, 1 for a single worker.
+     * @return The due reminders, ordered by day, then user.
+     * @throws IllegalStateException While the stream is read, if the database cannot be read.
+     */
+    public Stream<DueReminder> streamDueReminders(LocalDateTime from, Duration window, int shard, int shardCount) {
+        if (shardCount < 1 || shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException("The shard must be between 0 and shardCount - 1");
+        }
+        long startMinute = DueReminder.epochMinute(from);
+        long endMinute = startMinute + window.toMinutes();
+        if (endMinute <= startMinute) {
+            return Stream.empty();
+        }
+        long firstDay = Math.floorDiv(startMinute, MINUTES_PER_DAY);
+        long lastDay = Math.floorDiv(endMinute - 1, MINUTES_PER_DAY);
+        // One scan per day of the window, opened only when the previous day has been read.
+        return LongStream.rangeClosed(firstDay, lastDay).boxed().flatMap(day -> {
+            long dayStart = day * MINUTES_PER_DAY;
+            int firstMinute = (int) (Math.max(startMinute, dayStart) - dayStart);
+            int lastMinute = (int) (Math.min(endMinute - 1, dayStart + MINUTES_PER_DAY - 1) - dayStart);
+            return streamDueRemindersOnDay(LocalDate.ofEpochDay(day), firstMinute, lastMinute, shard, shardCount);
+        });
+    }
+
+    private Stream<DueReminder> streamDueRemindersOnDay(LocalDate date, int firstMinute, int lastMinute, int shard, int shardCount) {
+        // Rows stored before the schedule was compiled have NULL schedule columns and are filtered in Java instead.
+        String query = "SELECT * FROM medicine_reminders WHERE start_date <= ? AND end_date >= ? AND user_id % ? = ? " +
+                "AND (schedule_minutes IS NULL OR schedule_minutes && ?) " +
+                "AND (schedule_weekdays IS NULL OR schedule_weekdays & ? <> 0) " +
+                "AND (schedule_interval_days IS NULL OR schedule_interval_days <= 1 OR (? - start_date) % schedule_interval_days = 0) " +
+                "ORDER BY user_id, id";
+        Short[] windowMinutes = new Short[lastMinute - firstMinute + 1];
+        for (int i = 0; i < windowMinutes.length; i++) {
+            windowMinutes[i] = (short) (firstMinute + i);
+        }
+        // Bit 0 is Monday, as in ReminderSchedule.
+        short weekdayBit = (short) (1 << (date.getDayOfWeek().getValue() - 1));
+        long epochDay = date.toEpochDay();
+
+        try {
+            return ResultSetStream.open(query, STREAM_FETCH_SIZE, statement -> {
+                statement.setDate(1, Date.valueOf(date));
+                statement.setDate(2, Date.valueOf(date));
+                statement.setInt(3, shardCount);
+                statement.setInt(4, shard);
+                statement.setArray(5, statement.getConnection().createArrayOf("int2", windowMinutes));
+                statement.setShort(6, weekdayBit);
+                statement.setDate(7, Date.valueOf(date));
+            }, MedicineReminderManager::mapReminder).flatMap(reminder -> {
+                ReminderSchedule schedule = reminder.getCompiledSchedule();
+                if (!schedule.firesOn(epochDay)) {
+                    return Stream.empty();
+                }
+                Stream.Builder<DueReminder> due = Stream.builder();
+                for (int i = 0; i < schedule.getMinuteCount(); i++) {
+                    int minute = schedule.getMinute(i);
+                    if (minute >= firstMinute && minute <= lastMinute) {
+                        due.add(new DueReminder(reminder, date.atStartOfDay().plusMinutes(minute)));
+                    }
+                }
+                return due.build();
+            });
+        } catch (SQLException error) {
+            // Thrown rather than returning nothing, so a caller cannot mistake an outage for a day with no reminders.
+            throw new IllegalStateException("Failed to read the reminders due on " + date, error);
+        }
+    }
+
+    /**
+     * Creates a MedicineReminder from the current row of a result set over medicine_reminders.
+     *
+     * @param rs The result set, positioned on a reminder row.
+     * @return The reminder.
+     * @throws SQLException If a column cannot be read.
+     */
+    static MedicineReminder mapReminder(ResultSet rs) throws SQLException {
+        MedicineReminder reminder = new MedicineReminder(rs.getInt("id"), rs.getInt("user_id"), rs.getString("medicine_name"),
+                rs.getString("dosage"), rs.getString("schedule"), rs.getDate("start_date").toLocalDate(), rs.getDate("end_date").toLocalDate());
+        // Use the stored compiled schedule when all of it is there, rather than parsing the string again.
+        // A missing part is left to the parser, since getInt would read a NULL weekday mask as 0, never firing.
+        Array minutes = rs.getArray("schedule_minutes");
+        int weekdays = rs.getInt("schedule_weekdays");
+        boolean weekdaysMissing = rs.wasNull();
+        int intervalDays = rs.getInt("schedule_interval_days");
+        boolean intervalMissing = rs.wasNull();
+        if (minutes != null && !weekdaysMissing && !intervalMissing && intervalDays >= 1) {
+            Object[] values = (Object[]) minutes.getArray();
+            short[] compiled = new short[values.length];
+            for (int i = 0; i < values.length; i++) {
+                compiled[i] = ((Number) values[i]).shortValue();
+            }
+            reminder.setCompiledSchedule(new ReminderSchedule(compiled, weekdays, intervalDays, reminder.getStartDate().toEpochDay()));
+        }
+        return reminder;
+    }
+
+    // Binds the compiled schedule columns, starting at the given parameter index.
+    private static void setCompiledSchedule(Connection db, PreparedStatement statement, int index, MedicineReminder medReminder) throws SQLException {
+        ReminderSchedule compiled = medReminder.getCompiledSchedule();
+        if (!compiled.isFullyParsed()) {
+            System.err.println("Could not read \"" + compiled.getUnparsed() + "\" in the schedule of reminder "
+                    + medReminder.getId() + ", storing it as " + compiled);
+        }
+        Short[] minutes = new Short[compiled.getMinuteCount()];
+        for (int i = 0; i < minutes.length; i++) {
+            minutes[i] = (short) compiled.getMinute(i);
+        }
+        statement.setArray(index, db.createArrayOf("int2", minutes));
+        statement.setShort(index + 1, (short) compiled.getWeekdayMask());
+        statement.setShort(index + 2, (short) compiled.getIntervalDays());
+    }
+
+    /**
+     * Sets the write-ahead log storeReminder falls back to when the database cannot be reached.
+     *
+     * @param writeAheadLog The log, or null to fail instead.
+     */
+    public void setWriteAheadLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    /**
+     * Gets the write-ahead log storeReminder falls back to when the database cannot be reached.
+     *
+     * @return The log, or null if there is none.
+     */
+    public WriteAheadLog getWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    /**
+     * Registers a timing wheel to be told about reminders created, updated or deleted through this manager,
+     * so days it has already loaded stay up to date. ReminderTimingWheel.start does this itself.
+     *
+     * @param timingWheel The wheel.
+     */
+    public void addTimingWheel(ReminderTimingWheel timingWheel) {
+        timingWheels.addIfAbsent(timingWheel);
+    }
+
+    /**
+     * Stops telling a timing wheel about reminder changes.
+     *
+     * @param timingWheel The wheel.
+     */
+    public void removeTimingWheel(ReminderTimingWheel timingWheel) {
+        timingWheels.remove(timingWheel);
+    }
+
     /**
      * Stores a medicine reminder in the database.
+     * If the database cannot be reached and a write-ahead log is set, the reminder is logged to be stored later.
+     * If the connection is lost while the insert runs, the reminder may or may not have been stored. It is reported
+     * as failed and not logged, so a retry by the caller can store it twice.
      *
      * @param medReminder The medicine reminder to be stored.
-     * @return True if the reminder is successfully stored, false otherwise.
+     * @return True if the reminder is successfully stored or logged, false otherwise.
      */
     public boolean storeReminder(MedicineReminder medReminder) {
+        try {
+            return insertReminder(medReminder);
+        } catch (SQLException error) {
+            WriteAheadLog log = writeAheadLog;
+            if (log != null && WriteAheadLog.isUnavailable(error)) {
+                try {
+                    log.append(medReminder);
+                    return true;
+                } catch (IOException | IllegalArgumentException logError) {
+                    error.addSuppressed(logError);
+                }
+            }
+            error.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Inserts a medicine reminder into the database, without falling back to the write-ahead log.
+     * The generated ID is set on the reminder, and the timing wheels are told about it.
+     *
+     * @param medReminder The medicine reminder to be stored.
+     * @return True if a row was inserted.
+     * @throws SQLException If the insert failed.
+     */
+    boolean insertReminder(MedicineReminder medReminder) throws SQLException {
         boolean bool = false;
 
         // Prepare the SQL query
-        String query = "INSERT INTO medicine_reminders (user_id, medicine_name, dosage, schedule, start_date, end_date) VALUES (?, ?, ?, ?, ?, ?)";
+        String query = "INSERT INTO medicine_reminders (user_id, medicine_name, dosage, schedule, start_date, end_date, " +
+                "schedule_minutes, schedule_weekdays, schedule_interval_days) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
         // Database logic to insert data using PREPARED Statement
-        try {
-        Connection db = DatabaseConnection.getCon();
-        PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
         statement.setInt(1, medReminder.getUserId());
         statement.setString(2, medReminder.getMedicineName());
         statement.setString(3, medReminder.getDosage());
         statement.setString(4, medReminder.getSchedule());
         statement.setDate(5, java.sql.Date.valueOf(medReminder.getStartDate()));
         statement.setDate(6, java.sql.Date.valueOf(medReminder.getEndDate()));
-        int newRow = statement.executeUpdate();
+        setCompiledSchedule(db, statement, 7, medReminder);
+        int newRow;
+        try {
+            // Commits by itself, so a lost connection here leaves the outcome unknown.
+            newRow = statement.executeUpdate();
+        } catch (SQLException error) {
+            throw WriteAheadLog.outcomeUnknown(error);
+        }
         if(newRow != 0) {
             bool = true;
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                if (keys.next()) {
+                    medReminder.setId(keys.getInt("id"));
+                }
+            }
         }
-        } catch (SQLException error){
-            error.printStackTrace();
+        }
+        if (bool) {
+            for (ReminderTimingWheel timingWheel : timingWheels) {
+                timingWheel.reschedule(medReminder);
+            }
         }
         return bool;
     }
@@ -164,21 +362,32 @@ public class MedicineReminderManager {
         boolean bool = false;
 
         // Prepare the SQL query
-        String query = "UPDATE medicince_reminders, SET user_id = ?, medicine_name = ?, dosage = ?, schedule = ?, start_date = ?, end_date = ?";
+        String query = "UPDATE medicine_reminders SET user_id = ?, medicine_name = ?, dosage = ?, schedule = ?, start_date = ?, end_date = ?, " +
+                "schedule_minutes = ?, schedule_weekdays = ?, schedule_interval_days = ? WHERE id = ?";
         // Database logic to get update user Using Prepared Statement
-        try {
-            Connection db = DatabaseConnection.getCon();
-            PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
             statement.setInt(1, medReminder.getUserId());
             statement.setString(2, medReminder.getMedicineName());
             statement.setString(3, medReminder.getDosage());
             statement.setString(4, medReminder.getSchedule());
             statement.setDate(5, java.sql.Date.valueOf(medReminder.getStartDate()));
             statement.setDate(6, java.sql.Date.valueOf(medReminder.getEndDate()));
+            setCompiledSchedule(db, statement, 7, medReminder);
+            statement.setInt(10, medReminder.getId());
 
+            int updatedRow = statement.executeUpdate();
+            if (updatedRow != 0) {
+                bool = true;
+            }
         } catch (SQLException error) {
             error.printStackTrace();
         }
+        if (bool) {
+            for (ReminderTimingWheel timingWheel : timingWheels) {
+                timingWheel.reschedule(medReminder);
+            }
+        }
         return bool;
     }
 
@@ -192,12 +401,11 @@ public class MedicineReminderManager {
         boolean bool = false;
 
         // Prepare the SQL query
-        String query = "DELETE * FROM medicine_reminders WHERE id = ?";
+        String query = "DELETE FROM medicine_reminders WHERE id = ?";
 
         // Database logic to delete user
-        try {
-            Connection db = DatabaseConnection.getCon();
-            PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
             statement.setInt(1, id);
 
             int updatedRow = statement.executeUpdate();
@@ -208,6 +416,11 @@ public class MedicineReminderManager {
         } catch (SQLException error) {
             error.printStackTrace();
         }
+        if (bool) {
+            for (ReminderTimingWheel timingWheel : timingWheels) {
+                timingWheel.unschedule(id);
+            }
+        }
         return bool;
     }
 }
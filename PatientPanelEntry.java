@@ -0,0 +1,99 @@
+/**
+ * The PatientPanelEntry class holds what a doctor's dashboard shows for one patient:
+ * the patient's profile, their latest health reading and their averages over the last 30 days.
+ */
+public class PatientPanelEntry {
+    private User patient;
+    private HealthData latestReading;
+    private int recentReadingCount;
+    private double averageSteps;
+    private double averageHeartRate;
+    private double averageWeight;
+
+    /**
+     * Constructs a PatientPanelEntry object with the specified attributes.
+     *
+     * @param patient            The patient.
+     * @param latestReading      The patient's most recent health data, or null if they have none.
+     * @param recentReadingCount The number of readings in the last 30 days.
+     * @param averageSteps       The average step count over the last 30 days.
+     * @param averageHeartRate   The average heart rate over the last 30 days.
+     * @param averageWeight      The average weight over the last 30 days.
+     */
+    public PatientPanelEntry(User patient, HealthData latestReading, int recentReadingCount, double averageSteps,
+                             double averageHeartRate, double averageWeight) {
+        this.patient = patient;
+        this.latestReading = latestReading;
+        this.recentReadingCount = recentReadingCount;
+        this.averageSteps = averageSteps;
+        this.averageHeartRate = averageHeartRate;
+        this.averageWeight = averageWeight;
+    }
+
+    /**
+     * Gets the patient.
+     *
+     * @return The patient.
+     */
+    public User getPatient() {
+        return patient;
+    }
+
+    /**
+     * Gets the patient's most recent health data.
+     *
+     * @return The latest reading, or null if the patient has none.
+     */
+    public HealthData getLatestReading() {
+        return latestReading;
+    }
+
+    /**
+     * Gets the number of readings the patient recorded in the last 30 days.
+     *
+     * @return The number of recent readings, 0 if the averages are not available.
+     */
+    public int getRecentReadingCount() {
+        return recentReadingCount;
+    }
+
+    /**
+     * Gets the patient's average step count over the last 30 days.
+     *
+     * @return The average step count.
+     */
+    public double getAverageSteps() {
+        return averageSteps;
+    }
+
+    /**
+     * Gets the patient's average heart rate over the last 30 days.
+     *
+     * @return The average heart rate.
+     */
+    public double getAverageHeartRate() {
+        return averageHeartRate;
+    }
+
+    /**
+     * Gets the patient's average weight over the last 30 days.
+     *
+     * @return The average weight.
+     */
+    public double getAverageWeight() {
+        return averageWeight;
+    }
+
+    /**
+     * Returns a string representation of the PatientPanelEntry object.
+     *
+     * @return A string representation of the PatientPanelEntry object.
+     */
+    @Override
+    public String toString() {
+        return (patient + "\n" +
+        "Latest: " + (latestReading == null ? "no readings" : latestReading) + "\n" +
+        "Last 30 days (" + recentReadingCount + " readings): avg steps " + averageSteps +
+        ", avg heart rate " + averageHeartRate + ", avg weight " + averageWeight);
+    }
+}
@@ -0,0 +1,310 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * The RecommendationEngine class generates and stores recommendations for every user from their latest health reading.
+ * The latest readings are streamed from the database on the calling thread and handed out in chunks to a fixed pool
+ * of workers, which evaluate the recommendations and store each chunk with one batched insert.
+ * At most two chunks per worker are in flight, so memory stays bounded however many users there are.
+ * Every worker holds a pooled connection while it writes, so the parallelism should stay below the pool's maximum size.
+ * An incremental run only processes the users whose health data changed since their recommendations were last generated.
+ * In trend-aware mode each user's last 30 days are streamed instead of their latest reading and their trends are
+ * computed on the reader thread in the same pass, so recommendations follow trends rather than a single reading.
+ */
+public class RecommendationEngine {
+    private static final int DEFAULT_CHUNK_SIZE = 500;
+    private static final int STREAM_FETCH_SIZE = 1000;
+
+    private final RecommendationSystem recommendationSystem;
+    private final HealthDataChangeDao changeDao = new HealthDataChangeDao();
+    private final int parallelism;
+    private final int chunkSize;
+    private volatile boolean trendAware = false;
+
+    /**
+     * Constructs a RecommendationEngine with one worker per core, at most 8, and chunks of 500 users.
+     */
+    public RecommendationEngine() {
+        this(new RecommendationSystem());
+    }
+
+    /**
+     * Constructs a RecommendationEngine using the given rules, with one worker per core, at most 8, and chunks of 500 users.
+     *
+     * @param recommendationSystem The rules recommendations are generated and stored with.
+     */
+    public RecommendationEngine(RecommendationSystem recommendationSystem) {
+        this(recommendationSystem, Math.min(8, Runtime.getRuntime().availableProcessors()), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a RecommendationEngine.
+     *
+     * @param recommendationSystem The rules recommendations are generated and stored with.
+     * @param parallelism          The number of workers evaluating and storing recommendations at once.
+     * @param chunkSize            The number of users each worker evaluates and stores in one transaction.
+     */
+    public RecommendationEngine(RecommendationSystem recommendationSystem, int parallelism, int chunkSize) {
+        if (parallelism < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Parallelism and chunk size must be at least 1");
+        }
+        this.recommendationSystem = recommendationSystem;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Gets the number of workers evaluating and storing recommendations at once.
+     *
+     * @return The parallelism.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Gets the number of users each worker evaluates and stores in one transaction.
+     *
+     * @return The chunk size.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Checks whether runs generate recommendations from users' trends rather than their latest reading.
+     *
+     * @return true if runs are trend-aware.
+     */
+    public boolean isTrendAware() {
+        return trendAware;
+    }
+
+    /**
+     * Sets whether runs generate recommendations from users' trends over their last 30 days rather than their latest
+     * reading. Users without a reading in the last 30 days are skipped by trend-aware runs.
+     *
+     * @param trendAware true to generate recommendations from trends.
+     */
+    public void setTrendAware(boolean trendAware) {
+        this.trendAware = trendAware;
+    }
+
+    /**
+     * Generates and stores recommendations for every user that has health data, from their latest reading or their trends.
+     * A chunk that fails to store is counted in the report and the run carries on with the next one.
+     *
+     * @return A report of what was processed and how fast.
+     * @throws SQLException If the latest readings could not be read.
+     */
+    public RecommendationRunReport run() throws SQLException {
+        if (trendAware) {
+            String query = "SELECT * FROM health_data WHERE date > ? ORDER BY user_id, date, id";
+            return runTrends(query, rs -> new ChangedReading(HealthDataDao.mapHealthData(rs), -1));
+        }
+        // DISTINCT ON keeps the first row per user in the ORDER BY, which is the latest reading.
+        String query = "SELECT DISTINCT ON (user_id) * FROM health_data ORDER BY user_id, date DESC, id DESC";
+
+        return run(query, statement -> { }, rs -> new ChangedReading(HealthDataDao.mapHealthData(rs), -1), false);
+    }
+
+    /**
+     * Generates and stores recommendations only for the users whose health data changed since their recommendations
+     * were last generated, then moves their watermarks up to the change they were generated from.
+     * A user whose data changes again while the run is going is picked up by the next run.
+     * The run is driven from the change table, so a changed user with no readings left (or, trend-aware, none in the
+     * last 30 days) is still processed: their watermark is moved up, and if they have no readings at all, today's
+     * recommendations are deleted. Recommendations from earlier days are never deleted.
+     *
+     * @return A report of what was processed and how fast.
+     * @throws SQLException If the changed users' readings could not be read.
+     */
+    public RecommendationRunReport runIncremental() throws SQLException {
+        if (trendAware) {
+            String query = "SELECT h.*, c.user_id AS changed_user_id, c.change_seq FROM health_data_changes c " +
+                    "LEFT JOIN recommendation_watermarks w ON w.user_id = c.user_id " +
+                    "LEFT JOIN health_data h ON h.user_id = c.user_id AND h.date > ? " +
+                    "WHERE w.processed_seq IS NULL OR c.change_seq > w.processed_seq " +
+                    "ORDER BY c.user_id, h.date, h.id";
+            return runTrends(query, RecommendationEngine::mapChangedReading);
+        }
+        String query = "SELECT DISTINCT ON (c.user_id) h.*, c.user_id AS changed_user_id, c.change_seq FROM health_data_changes c " +
+                "LEFT JOIN recommendation_watermarks w ON w.user_id = c.user_id " +
+                "LEFT JOIN health_data h ON h.user_id = c.user_id " +
+                "WHERE w.processed_seq IS NULL OR c.change_seq > w.processed_seq " +
+                "ORDER BY c.user_id, h.date DESC, h.id DESC";
+
+        return run(query, statement -> { }, RecommendationEngine::mapChangedReading, false);
+    }
+
+    // A row of the change table left joined to health_data, with no reading when the user has none left.
+    private static ChangedReading mapChangedReading(ResultSet rs) throws SQLException {
+        long changeSeq = rs.getLong("change_seq");
+        if (rs.getObject("id") == null) {
+            return new ChangedReading(rs.getInt("changed_user_id"), null, changeSeq, null);
+        }
+        return new ChangedReading(HealthDataDao.mapHealthData(rs), changeSeq);
+    }
+
+    // The rows come ordered by user and date, so each user's trends are finished as soon as the next user's rows start.
+    private RecommendationRunReport runTrends(String query, ResultSetStream.RowMapper<ChangedReading> rowMapper) throws SQLException {
+        Date windowStart = Date.valueOf(LocalDate.now().minusDays(TrendAnalyzer.LONG_WINDOW_DAYS));
+        return run(query, statement -> statement.setDate(1, windowStart), rowMapper, true);
+    }
+
+    private RecommendationRunReport run(String query, ResultSetStream.Binder binder,
+                                        ResultSetStream.RowMapper<ChangedReading> mapper, boolean trends) throws SQLException {
+        long start = System.nanoTime();
+        AtomicLong users = new AtomicLong();
+        AtomicLong stored = new AtomicLong();
+        AtomicLong failedUsers = new AtomicLong();
+        int maxInFlight = parallelism * 2;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ExecutorService workers = newWorkers();
+
+        try (Stream<ChangedReading> rows = ResultSetStream.open(query, STREAM_FETCH_SIZE, binder, mapper)) {
+            List<ChangedReading> chunk = new ArrayList<>(chunkSize);
+            TrendAnalyzer analyzer = null;
+            ChangedReading previous = null;
+            for (ChangedReading row : (Iterable<ChangedReading>) rows::iterator) {
+                ChangedReading reading = row;
+                if (trends) {
+                    reading = null;
+                    boolean newUser = previous == null || previous.userId != row.userId;
+                    if (previous != null && newUser) {
+                        reading = withTrends(previous, analyzer);
+                    }
+                    if (newUser) {
+                        analyzer = new TrendAnalyzer();
+                    }
+                    if (row.healthData != null) {
+                        analyzer.add(row.healthData);
+                    }
+                    previous = row;
+                }
+                if (reading != null) {
+                    chunk.add(reading);
+                }
+                if (chunk.size() == chunkSize) {
+                    submit(workers, inFlight, chunk, users, stored, failedUsers);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (previous != null) {
+                chunk.add(withTrends(previous, analyzer));
+            }
+            if (!chunk.isEmpty()) {
+                submit(workers, inFlight, chunk, users, stored, failedUsers);
+            }
+            // Every permit back means every chunk has been stored.
+            inFlight.acquireUninterruptibly(maxInFlight);
+        } finally {
+            workers.shutdown();
+        }
+        return new RecommendationRunReport(users.get(), stored.get(), failedUsers.get(), parallelism, System.nanoTime() - start);
+    }
+
+    // The user's last reading with the trends of all their readings, or the row as it is if they have no readings.
+    private static ChangedReading withTrends(ChangedReading last, TrendAnalyzer analyzer) {
+        if (last.healthData == null) {
+            return last;
+        }
+        return new ChangedReading(last.userId, last.healthData, last.changeSeq, analyzer.getTrends());
+    }
+
+    private void submit(ExecutorService workers, Semaphore inFlight, List<ChangedReading> chunk,
+                        AtomicLong users, AtomicLong stored, AtomicLong failedUsers) {
+        // Blocks the reader while the workers are busy, so rows are not fetched faster than they are processed.
+        inFlight.acquireUninterruptibly();
+        try {
+            workers.execute(() -> {
+                try {
+                    stored.addAndGet(process(chunk));
+                    users.addAndGet(chunk.size());
+                } catch (SQLException | RuntimeException error) {
+                    error.printStackTrace();
+                    failedUsers.addAndGet(chunk.size());
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException error) {
+            inFlight.release();
+            throw error;
+        }
+    }
+
+    private int process(List<ChangedReading> chunk) throws SQLException {
+        Map<Integer, List<String>> recommendationsByUser = new LinkedHashMap<>();
+        Map<Integer, Long> changeSeqs = new HashMap<>();
+        List<Integer> usersWithoutData = new ArrayList<>();
+        for (ChangedReading reading : chunk) {
+            if (reading.changeSeq >= 0) {
+                changeSeqs.put(reading.userId, reading.changeSeq);
+            }
+            if (reading.healthData == null) {
+                usersWithoutData.add(reading.userId);
+                continue;
+            }
+            List<String> recommendations = reading.trends != null
+                    ? recommendationSystem.generateRecommendations(reading.trends)
+                    : recommendationSystem.generateRecommendations(reading.healthData);
+            if (!recommendations.isEmpty()) {
+                recommendationsByUser.put(reading.userId, recommendations);
+            }
+        }
+        int inserted = recommendationsByUser.isEmpty() ? 0 : recommendationSystem.createRecommendations(recommendationsByUser);
+        // Today's recommendations of users with no readings left were made from data that is gone. Users who only have
+        // no recent readings keep theirs, and so does every earlier day.
+        recommendationSystem.deleteTodaysRecommendationsWithoutData(usersWithoutData);
+        // After the recommendations are committed: if this fails the users are simply processed again next run,
+        // and storing their recommendations again adds nothing.
+        changeDao.markProcessed(changeSeqs);
+        return inserted;
+    }
+
+    private ExecutorService newWorkers() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "recommendation-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A user's latest reading (null if a changed user has none left), the change stamp it was read at
+     * (-1 outside incremental runs) and their trends (null outside trend-aware runs).
+     */
+    private static class ChangedReading {
+        private final int userId;
+        private final HealthData healthData;
+        private final long changeSeq;
+        private final HealthTrends trends;
+
+        private ChangedReading(HealthData healthData, long changeSeq) {
+            this(healthData.getUserId(), healthData, changeSeq, null);
+        }
+
+        private ChangedReading(int userId, HealthData healthData, long changeSeq, HealthTrends trends) {
+            this.userId = userId;
+            this.healthData = healthData;
+            this.changeSeq = changeSeq;
+            this.trends = trends;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * The RecommendationRule class represents one row of the recommendation_rules table: when a metric of a health
+ * reading compares to the thresholds in the given way, the message is recommended.
+ * The message may contain {low} and {high}, which are replaced by the thresholds when the rules are compiled.
+ * A rule on a trend metric never matches when only a single reading is evaluated.
+ */
+public class RecommendationRule {
+
+    /**
+     * The values of a health reading a rule can test.
+     */
+    public enum Metric {
+        /** The heart rate. */
+        HEART_RATE,
+        /** The step count. */
+        STEPS,
+        /** The body mass index, from weight in pounds and height in inches. */
+        BMI,
+        /** The weight. */
+        WEIGHT,
+        /** The standard deviation of the heart rate over the last 7 days, only known when trends are evaluated. */
+        HEART_RATE_STDDEV_7D,
+        /** The standard deviation of the step count over the last 7 days, only known when trends are evaluated. */
+        STEPS_STDDEV_7D,
+        /** The change in weight over the last 30 days, in pounds per week, only known when trends are evaluated. */
+        WEIGHT_SLOPE_30D
+    }
+
+    /**
+     * How a metric is compared to the thresholds.
+     */
+    public enum Comparator {
+        /** Less than the low threshold. */
+        LT,
+        /** Less than or equal to the low threshold. */
+        LE,
+        /** Greater than the low threshold. */
+        GT,
+        /** Greater than or equal to the low threshold. */
+        GE,
+        /** Between the low and high thresholds, both included. */
+        BETWEEN
+    }
+
+    private final Metric metric;
+    private final Comparator comparator;
+    private final double low;
+    private final double high;
+    private final String message;
+
+    /**
+     * Constructs a RecommendationRule object with the specified attributes.
+     *
+     * @param metric     The metric the rule tests.
+     * @param comparator How the metric is compared.
+     * @param low        The threshold, or the lower bound for BETWEEN.
+     * @param high       The upper bound for BETWEEN, ignored by the other comparators.
+     * @param message    The message recommended when the rule matches.
+     */
+    public RecommendationRule(Metric metric, Comparator comparator, double low, double high, String message) {
+        this.metric = metric;
+        this.comparator = comparator;
+        this.low = low;
+        this.high = high;
+        this.message = message;
+    }
+
+    /**
+     * Constructs a RecommendationRule object with a single threshold.
+     *
+     * @param metric     The metric the rule tests.
+     * @param comparator How the metric is compared.
+     * @param threshold  The threshold.
+     * @param message    The message recommended when the rule matches.
+     */
+    public RecommendationRule(Metric metric, Comparator comparator, double threshold, String message) {
+        this(metric, comparator, threshold, Double.NaN, message);
+    }
+
+    /**
+     * Gets the metric the rule tests.
+     *
+     * @return The metric.
+     */
+    public Metric getMetric() {
+        return metric;
+    }
+
+    /**
+     * Gets how the metric is compared.
+     *
+     * @return The comparator.
+     */
+    public Comparator getComparator() {
+        return comparator;
+    }
+
+    /**
+     * Gets the threshold, or the lower bound for BETWEEN.
+     *
+     * @return The low threshold.
+     */
+    public double getLow() {
+        return low;
+    }
+
+    /**
+     * Gets the upper bound for BETWEEN.
+     *
+     * @return The high threshold, NaN if the rule has only one.
+     */
+    public double getHigh() {
+        return high;
+    }
+
+    /**
+     * Gets the message template.
+     *
+     * @return The message, possibly containing {low} and {high}.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns a string representation of the RecommendationRule object.
+     *
+     * @return A string representation of the RecommendationRule object.
+     */
+    @Override
+    public String toString() {
+        return metric + " " + comparator + " " + low + (comparator == Comparator.BETWEEN ? " AND " + high : "") + ": " + message;
+    }
+}
@@ -0,0 +1,43 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The RecommendationRuleDao class reads the recommendation rules from the database.
+ */
+public class RecommendationRuleDao {
+
+    /**
+     * Retrieves the enabled recommendation rules in evaluation order.
+     *
+     * @return A list of the enabled rules.
+     * @throws SQLException If the rules could not be read, or a rule names an unknown metric or comparator.
+     */
+    public List<RecommendationRule> getEnabledRules() throws SQLException {
+        List<RecommendationRule> rules = new ArrayList<>();
+
+        String query = "SELECT * FROM recommendation_rules WHERE enabled ORDER BY sort_order, id";
+
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query);
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                double high = rs.getDouble("high_value");
+                if (rs.wasNull()) {
+                    high = Double.NaN;
+                }
+                try {
+                    rules.add(new RecommendationRule(
+                            RecommendationRule.Metric.valueOf(rs.getString("metric").trim().toUpperCase()),
+                            RecommendationRule.Comparator.valueOf(rs.getString("comparator").trim().toUpperCase()),
+                            rs.getDouble("low_value"),
+                            high,
+                            rs.getString("message")));
+                } catch (IllegalArgumentException e) {
+                    throw new SQLException("Invalid recommendation rule " + rs.getInt("id") + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return rules;
+    }
+}
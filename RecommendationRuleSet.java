@@ -0,0 +1,171 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compiled, immutable set of recommendation rules.
+ * The rules are flattened into parallel arrays of metric and comparator codes and thresholds, and every message
+ * is rendered and interned once when the set is compiled, so evaluating a reading walks the arrays without
+ * allocating anything but the result list, and every match returns the same shared message instance.
+ */
+public class RecommendationRuleSet {
+    private static final int HEART_RATE = RecommendationRule.Metric.HEART_RATE.ordinal();
+    private static final int STEPS = RecommendationRule.Metric.STEPS.ordinal();
+    private static final int BMI = RecommendationRule.Metric.BMI.ordinal();
+    private static final int WEIGHT = RecommendationRule.Metric.WEIGHT.ordinal();
+    private static final int HEART_RATE_STDDEV_7D = RecommendationRule.Metric.HEART_RATE_STDDEV_7D.ordinal();
+    private static final int STEPS_STDDEV_7D = RecommendationRule.Metric.STEPS_STDDEV_7D.ordinal();
+
+    private static final int LT = RecommendationRule.Comparator.LT.ordinal();
+    private static final int LE = RecommendationRule.Comparator.LE.ordinal();
+    private static final int GT = RecommendationRule.Comparator.GT.ordinal();
+    private static final int GE = RecommendationRule.Comparator.GE.ordinal();
+
+    private final List<RecommendationRule> rules;
+    private final byte[] metrics;
+    private final byte[] comparators;
+    private final double[] lows;
+    private final double[] highs;
+    private final String[] messages;
+
+    private RecommendationRuleSet(List<RecommendationRule> rules) {
+        int size = rules.size();
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        metrics = new byte[size];
+        comparators = new byte[size];
+        lows = new double[size];
+        highs = new double[size];
+        messages = new String[size];
+        for (int i = 0; i < size; i++) {
+            RecommendationRule rule = rules.get(i);
+            metrics[i] = (byte) rule.getMetric().ordinal();
+            comparators[i] = (byte) rule.getComparator().ordinal();
+            lows[i] = rule.getLow();
+            highs[i] = rule.getHigh();
+            messages[i] = render(rule).intern();
+        }
+    }
+
+    /**
+     * Compiles rules into a rule set. Rules are evaluated, and their messages returned, in the order given.
+     *
+     * @param rules The rules to compile.
+     * @return The compiled rule set.
+     * @throws IllegalArgumentException If a rule is missing its metric, comparator or message, or a BETWEEN rule has no upper bound.
+     */
+    public static RecommendationRuleSet compile(List<RecommendationRule> rules) {
+        for (RecommendationRule rule : rules) {
+            if (rule.getMetric() == null || rule.getComparator() == null || rule.getMessage() == null) {
+                throw new IllegalArgumentException("Incomplete recommendation rule: " + rule);
+            }
+            if (rule.getComparator() == RecommendationRule.Comparator.BETWEEN && Double.isNaN(rule.getHigh())) {
+                throw new IllegalArgumentException("BETWEEN rule without an upper bound: " + rule);
+            }
+        }
+        return new RecommendationRuleSet(rules);
+    }
+
+    /**
+     * Gets the recommendations for a health reading. Rules on trend metrics do not match.
+     *
+     * @param healthData The health data of the user.
+     * @return The messages of the rules that match, in rule order.
+     */
+    public List<String> evaluate(HealthData healthData) {
+        return evaluate(healthData.getHeartRate(), healthData.getSteps(), healthData.getWeight(), healthData.getHeight(),
+                Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Gets the recommendations for a user's trends. Heart rate and steps rules are judged on their 7 day means,
+     * so a single unusual reading does not trigger advice, and weight and BMI on the latest reading.
+     *
+     * @param trends The user's trends, with at least one reading.
+     * @return The messages of the rules that match, in rule order.
+     */
+    public List<String> evaluate(HealthTrends trends) {
+        HealthData latest = trends.getLatestReading();
+        return evaluate(trends.getHeartRateMean(), trends.getStepsMean(), latest.getWeight(), latest.getHeight(),
+                trends.getHeartRateStdDev(), trends.getStepsStdDev(), trends.getWeightSlopePerWeek());
+    }
+
+    // NaN never compares true, so rules on values that are not known never match.
+    private List<String> evaluate(double heartRate, double steps, double weight, double height,
+                                  double heartRateStdDev, double stepsStdDev, double weightSlope) {
+        // BMI calculating formula (height in inches and weight in pounds).
+        double bmi = weight / (height * height) * 703;
+
+        List<String> recommendations = new ArrayList<>(4);
+        for (int i = 0; i < metrics.length; i++) {
+            int metric = metrics[i];
+            double value;
+            if (metric == HEART_RATE) {
+                value = heartRate;
+            } else if (metric == STEPS) {
+                value = steps;
+            } else if (metric == BMI) {
+                value = bmi;
+            } else if (metric == WEIGHT) {
+                value = weight;
+            } else if (metric == HEART_RATE_STDDEV_7D) {
+                value = heartRateStdDev;
+            } else if (metric == STEPS_STDDEV_7D) {
+                value = stepsStdDev;
+            } else {
+                value = weightSlope;
+            }
+            if (matches(comparators[i], value, lows[i], highs[i])) {
+                recommendations.add(messages[i]);
+            }
+        }
+        return recommendations;
+    }
+
+    /**
+     * Gets the rules the set was compiled from.
+     *
+     * @return The rules, in evaluation order.
+     */
+    public List<RecommendationRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * Gets the number of rules in the set.
+     *
+     * @return The number of rules.
+     */
+    public int size() {
+        return metrics.length;
+    }
+
+    private static boolean matches(int comparator, double value, double low, double high) {
+        if (comparator == LT) {
+            return value < low;
+        }
+        if (comparator == LE) {
+            return value <= low;
+        }
+        if (comparator == GT) {
+            return value > low;
+        }
+        if (comparator == GE) {
+            return value >= low;
+        }
+        return value >= low && value <= high;
+    }
+
+    private static String render(RecommendationRule rule) {
+        return rule.getMessage()
+                .replace("{low}", formatThreshold(rule.getLow()))
+                .replace("{high}", formatThreshold(rule.getHigh()));
+    }
+
+    // Whole thresholds are shown without a decimal point, so 10000 reads "10000" rather than "10000.0".
+    private static String formatThreshold(double threshold) {
+        if (threshold == Math.rint(threshold) && !Double.isInfinite(threshold)) {
+            return Long.toString((long) threshold);
+        }
+        return Double.toString(threshold);
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * The RecommendationRunReport class holds the results and throughput of one RecommendationEngine run.
+ */
+public class RecommendationRunReport {
+    private final long users;
+    private final long recommendationsStored;
+    private final long failedUsers;
+    private final int parallelism;
+    private final long elapsedNanos;
+
+    /**
+     * Constructs a RecommendationRunReport object.
+     *
+     * @param users                 The number of users whose recommendations were stored.
+     * @param recommendationsStored The number of recommendations newly stored.
+     * @param failedUsers           The number of users whose recommendations could not be stored.
+     * @param parallelism           The number of workers the run used.
+     * @param elapsedNanos          How long the run took, in nanoseconds.
+     */
+    public RecommendationRunReport(long users, long recommendationsStored, long failedUsers, int parallelism, long elapsedNanos) {
+        this.users = users;
+        this.recommendationsStored = recommendationsStored;
+        this.failedUsers = failedUsers;
+        this.parallelism = parallelism;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Gets the number of users whose recommendations were stored.
+     *
+     * @return The number of users processed.
+     */
+    public long getUsers() {
+        return users;
+    }
+
+    /**
+     * Gets the number of recommendations newly stored. Recommendations the users already had for the day are not counted.
+     *
+     * @return The number of recommendations stored.
+     */
+    public long getRecommendationsStored() {
+        return recommendationsStored;
+    }
+
+    /**
+     * Gets the number of users whose recommendations could not be stored.
+     *
+     * @return The number of failed users.
+     */
+    public long getFailedUsers() {
+        return failedUsers;
+    }
+
+    /**
+     * Gets the number of workers the run used.
+     *
+     * @return The parallelism.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Gets how long the run took.
+     *
+     * @return The elapsed time in milliseconds.
+     */
+    public double getElapsedMillis() {
+        return elapsedNanos / 1_000_000.0;
+    }
+
+    /**
+     * Gets the run throughput.
+     *
+     * @return The number of users processed per second.
+     */
+    public double getUsersPerSecond() {
+        return elapsedNanos == 0 ? 0 : users * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /**
+     * Returns a string representation of the RecommendationRunReport object.
+     *
+     * @return A string representation of the RecommendationRunReport object.
+     */
+    @Override
+    public String toString() {
+        return String.format("Processed %d users (%d failed) with %d workers in %.1f ms, storing %d recommendations: %.0f users/s",
+                users, failedUsers, parallelism, getElapsedMillis(), recommendationsStored, getUsersPerSecond());
+    }
+}
@@ -1,72 +1,152 @@
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class provides the ability to generate health recommendations
  * based on user's individual health data and store them in the database.
+ * The rules are compiled from the recommendation_rules table and can be reloaded while the system runs.
  */
 public class RecommendationSystem {
     private static final int MIN_HEART_RATE = 60;
     private static final int MAX_HEART_RATE = 100;
     private static final int MIN_STEPS = 10000;
 
+    private final RecommendationRuleDao ruleDao = new RecommendationRuleDao();
+    private volatile RecommendationRuleSet rules = RecommendationRuleSet.compile(defaultRules());
+    private ScheduledExecutorService reloader;
+
     // Creating a date instance for the current date to conform with the sql data type.
     LocalDate currentDate = LocalDate.now();
     
     /**
-     * Generates health recommendations based on the user's heart rate and weight to height relation.
+     * Generates health recommendations based on the user's heart rate, steps and weight to height relation.
+     * Uses the rules last loaded from the recommendation_rules table, or the built-in rules if they have not been loaded.
      *
      * @param healthData The health data of the user.
      * @return A list of recommendations.
      */
     public List<String> generateRecommendations(HealthData healthData) {
-        List<String> recommendations = new ArrayList<>();
+        return rules.evaluate(healthData);
+    }
 
-//        // Analyze heart rate
-        int heartRate = healthData.getHeartRate();
-        if (heartRate < MIN_HEART_RATE) {
-            recommendations.add("Your heart rate is lower than the recommended range. " +
-                    "Consider increasing your physical activity to improve your cardiovascular health.");
-        }
+    /**
+     * Generates health recommendations from the user's trends rather than a single reading, so one noisy sample does not
+     * trigger advice. Heart rate and steps are judged on their 7 day means, and the trend rules on the 7 day variability
+     * and the 30 day weight slope also apply.
+     *
+     * @param trends The trends of the user, with at least one reading.
+     * @return A list of recommendations.
+     */
+    public List<String> generateRecommendations(HealthTrends trends) {
+        return rules.evaluate(trends);
+    }
 
-        heartRate = healthData.getHeartRate();
-        if (heartRate > MAX_HEART_RATE) {
-            recommendations.add("Your heart rate is higher than the reccomended range. Try taking it easy to improve your cardiovascular health. " +
-            "Could be due to heavy exercise, stress, low blood sugar or low blood pressure. May");
-        }
-//
-//
-//        // Analyze steps
-        int steps = healthData.getSteps();
-        if (steps < MIN_STEPS) {
-            recommendations.add("You're not reaching the recommended daily step count (" + MIN_STEPS +
-                    " steps). Try to incorporate more walking or other physical activities into your daily routine.");
-        }
+    /**
+     * Generates health recommendations from a user's history, computing their trends in one pass.
+     *
+     * @param readings The health data of the user, oldest first.
+     * @return A list of recommendations, empty if there are no readings.
+     */
+    public List<String> generateTrendRecommendations(Iterable<HealthData> readings) {
+        HealthTrends trends = TrendAnalyzer.analyze(readings);
+        return trends.getLatestReading() == null ? new ArrayList<>() : rules.evaluate(trends);
+    }
 
-        // Analyze BMI
-        double weight = healthData.getWeight();
-        double height = healthData.getHeight();
+    /**
+     * Gets the rules recommendations are currently generated with.
+     *
+     * @return The compiled rule set.
+     */
+    public RecommendationRuleSet getRules() {
+        return rules;
+    }
 
-        // BMI calculating formula (height in inches and weight in pounds).
-        double BMI = weight / (height * height) * 703;
+    /**
+     * Loads the enabled rules from the recommendation_rules table and swaps them in.
+     * Recommendations being generated while the rules are swapped finish with the old rules.
+     *
+     * @return True if the rules were reloaded, false if they could not be read and the current rules were kept.
+     */
+    public boolean reloadRules() {
+        boolean bool = false;
 
-        if (BMI < 18.5) {
-                recommendations.add("Your Body Mass Index (BMI) falls within the underweight range. Consider diet and exercise changes.");
-        }
-        if (BMI >= 25.0 && BMI <= 29.9) {
-                recommendations.add("Your Body Mass Index (BMI) falls within the overweight range. Consider making diet and exercise changes.");
+        try {
+            rules = RecommendationRuleSet.compile(ruleDao.getEnabledRules());
+            bool = true;
+        } catch (SQLException | IllegalArgumentException error) {
+            error.printStackTrace();
         }
-        if (BMI >= 30.0) {
-                recommendations.add("Your Body Mass Index (BMI) falls within the obese range. Consider making diet and exercise changes.");
+        return bool;
+    }
+
+    /**
+     * Reloads the rules from the database now and then on a schedule, so rule changes apply without a restart.
+     *
+     * @param periodSeconds How often to reload the rules, in seconds.
+     */
+    public synchronized void startAutoReload(long periodSeconds) {
+        stopAutoReload();
+        reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "recommendation-rules-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloader.scheduleWithFixedDelay(this::reloadRules, 0, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops reloading the rules on a schedule. The rules last loaded stay in use.
+     */
+    public synchronized void stopAutoReload() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+            reloader = null;
         }
+    }
 
-        return recommendations;
+    /**
+     * Gets the built-in rules, used until rules are loaded from the database.
+     * They are the same rules script/recommendation_rules.sql seeds the table with.
+     *
+     * @return The built-in rules.
+     */
+    public static List<RecommendationRule> defaultRules() {
+        List<RecommendationRule> defaults = new ArrayList<>();
+        defaults.add(new RecommendationRule(RecommendationRule.Metric.HEART_RATE, RecommendationRule.Comparator.LT, MIN_HEART_RATE,
+                "Your heart rate is lower than the recommended range. " +
+                "Consider increasing your physical activity to improve your cardiovascular health."));
+        defaults.add(new RecommendationRule(RecommendationRule.Metric.HEART_RATE, RecommendationRule.Comparator.GT, MAX_HEART_RATE,
+                "Your heart rate is higher than the reccomended range. Try taking it easy to improve your cardiovascular health. " +
+                "Could be due to heavy exercise, stress, low blood sugar or low blood pressure. May"));
+        defaults.add(new RecommendationRule(RecommendationRule.Metric.STEPS, RecommendationRule.Comparator.LT, MIN_STEPS,
+                "You're not reaching the recommended daily step count ({low} steps). " +
+                "Try to incorporate more walking or other physical activities into your daily routine."));
+        defaults.add(new RecommendationRule(RecommendationRule.Metric.BMI, RecommendationRule.Comparator.LT, 18.5,
+                "Your Body Mass Index (BMI) falls within the underweight range. Consider diet and exercise changes."));
+        defaults.add(new RecommendationRule(RecommendationRule.Metric.BMI, RecommendationRule.Comparator.BETWEEN, 25.0, 29.9,
+                "Your Body Mass Index (BMI) falls within the overweight range. Consider making diet and exercise changes."));
+        defaults.add(new RecommendationRule(RecommendationRule.Metric.BMI, RecommendationRule.Comparator.GE, 30.0,
+                "Your Body Mass Index (BMI) falls within the obese range. Consider making diet and exercise changes."));
+        defaults.add(new RecommendationRule(RecommendationRule.Metric.WEIGHT_SLOPE_30D, RecommendationRule.Comparator.GT, 2,
+                "Your weight has been going up by more than {low} pounds a week over the last month. Consider making diet and exercise changes."));
+        defaults.add(new RecommendationRule(RecommendationRule.Metric.WEIGHT_SLOPE_30D, RecommendationRule.Comparator.LT, -2,
+                "Your weight has been going down quickly over the last month. If this is not intended, consider talking to your doctor."));
+        defaults.add(new RecommendationRule(RecommendationRule.Metric.HEART_RATE_STDDEV_7D, RecommendationRule.Comparator.GT, 20,
+                "Your heart rate has varied a lot over the last week. Consider keeping an eye on it and talking to your doctor if it continues."));
+        return defaults;
     }
 
     /**
      * Stores the recommendations for a user in the database.
+     * Recommendations the user already has for today are skipped.
      *
      * @param userId          The ID of the user.
      * @param recommendations The list of recommendations to store.
@@ -74,30 +154,83 @@ public class RecommendationSystem {
      */
     public boolean createRecommendation(int userId, List<String> recommendations) {
         boolean bool = false;
-    
-    String query = "INSERT INTO recommendations (user_id, recommendation_text, date) VALUES (?, ?, ?)";
 
-    // Database logic to insert data using PREPARED Statement
-    try {
-    Connection db = DatabaseConnection.getCon();
-    PreparedStatement statement = db.prepareStatement(query);
-    for (String recommendation : recommendations) {
-        statement.setInt(1, userId);
-        statement.setString(2, recommendation);
-        statement.setDate(3, Date.valueOf(currentDate));
+        try {
+            createRecommendations(Map.of(userId, recommendations));
+            bool = true;
+        } catch (SQLException error) {
+            error.printStackTrace();
+        }
+        return bool;
+    }
 
-        int newRow = statement.executeUpdate();
+    /**
+     * Stores the recommendations for many users in one transaction, using a single batch insert.
+     * Duplicates in the lists and recommendations a user already has for today are skipped,
+     * so running the same job twice on one day stores nothing new.
+     *
+     * @param recommendationsByUser The recommendations to store, by user ID.
+     * @return The number of recommendations newly stored.
+     * @throws SQLException If the insert fails, in which case nothing is stored.
+     */
+    public int createRecommendations(Map<Integer, List<String>> recommendationsByUser) throws SQLException {
+        String query = "INSERT INTO recommendations (user_id, recommendation_text, date) VALUES (?, ?, ?) " +
+                "ON CONFLICT (user_id, date, md5(recommendation_text)) DO NOTHING";
+        Date date = Date.valueOf(currentDate);
 
-        if(newRow != 0) {
-                bool = true;
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
+            db.setAutoCommit(false);
+            try {
+                int batched = 0;
+                for (Map.Entry<Integer, List<String>> entry : recommendationsByUser.entrySet()) {
+                    for (String recommendation : new LinkedHashSet<>(entry.getValue())) {
+                        statement.setInt(1, entry.getKey());
+                        statement.setString(2, recommendation);
+                        statement.setDate(3, date);
+                        statement.addBatch();
+                        batched++;
+                    }
+                }
+                int inserted = 0;
+                if (batched > 0) {
+                    for (int count : statement.executeBatch()) {
+                        if (count > 0) {
+                            inserted += count;
+                        }
+                    }
+                }
+                db.commit();
+                return inserted;
+            } catch (SQLException error) {
+                db.rollback();
+                throw error;
             }
+        }
     }
-    
-    } catch (SQLException error){
-        error.printStackTrace();
+
+    /**
+     * Deletes today's recommendations of those given users who have no health data left at all.
+     * Recommendations from earlier days are kept as history, and users with any reading keep theirs.
+     *
+     * @param userIds The IDs of the users.
+     * @return The number of recommendations deleted.
+     * @throws SQLException If the delete fails.
+     */
+    public int deleteTodaysRecommendationsWithoutData(Collection<Integer> userIds) throws SQLException {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        String query = "DELETE FROM recommendations r WHERE r.user_id = ANY(?) AND r.date = ? " +
+                "AND NOT EXISTS (SELECT 1 FROM health_data h WHERE h.user_id = r.user_id)";
+
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
+            statement.setArray(1, db.createArrayOf("integer", userIds.toArray()));
+            statement.setDate(2, Date.valueOf(currentDate));
+            return statement.executeUpdate();
+        }
     }
-    return bool;
-    };
 
     /**
      * Updates the recommendations for a user in the database.
@@ -112,9 +245,8 @@ public class RecommendationSystem {
         // Prepare the SQL query
         String query = "UPDATE recommendations SET user_id = ?, recommendation_text = ?, date = ?";
         // Database logic to get update user Using Prepared Statement
-        try {
-            Connection db = DatabaseConnection.getCon();
-            PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
 
             for (String recommendation : recommendations) {
                 statement.setInt(1, userId);
@@ -145,9 +277,8 @@ public class RecommendationSystem {
           String query = "DELETE FROM recommendations WHERE id = ?";
   
           // Database logic to delete user
-          try {
-              Connection con = DatabaseConnection.getCon();
-              PreparedStatement statement = con.prepareStatement(query);
+          try (Connection con = DatabaseConnection.getConnection();
+               PreparedStatement statement = con.prepareStatement(query)) {
               statement.setInt(1, id);
               int rowsUpdated = statement.executeUpdate();
               if (rowsUpdated != 0){
@@ -0,0 +1,367 @@
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ReminderDispatcher class delivers due reminders to a ReminderSink.
+ * Due reminders are offered to a bounded queue, and are dropped and counted when it is full or the dispatcher
+ * has been shut down, so a slow sink cannot make the timing wheel fall behind. A single background thread takes
+ * them off the queue and combines a user's reminders for the same minute into one notification. A minute is held
+ * open until it is complete: until a reminder for a later minute arrives, or no reminder for it has arrived for the
+ * max batch delay. The wheel fires a minute's reminders in one burst, so they all land in the same notification
+ * even when they are taken off the queue in several drains. Completed notifications are sent in batches, and a
+ * batch that fails is retried with exponential backoff, its notifications counted as failed once the attempts run out.
+ * Can be used directly as a ReminderTimingWheel callback with dispatcher::offer.
+ */
+public class ReminderDispatcher {
+    private static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 1000;
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final ReminderSink sink;
+    private final BlockingQueue<DueReminder> queue;
+    private final int batchSize;
+    private final long maxBatchDelayMillis;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong deliveredReminders = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong totalLagMillis = new AtomicLong();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+    private final AtomicLong lastLagMillis = new AtomicLong();
+
+    private volatile boolean running = false;
+    private volatile boolean stopped = false;
+    private volatile long startedAt;
+    private Thread worker;
+
+    /**
+     * Constructs a ReminderDispatcher with a queue of 10,000 reminders, batches of up to 100 sent at least every second,
+     * and up to 5 attempts per batch starting with a 200 ms backoff.
+     *
+     * @param sink Where notifications are delivered.
+     */
+    public ReminderDispatcher(ReminderSink sink) {
+        this(sink, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_MAX_BATCH_DELAY_MILLIS,
+                DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Constructs a ReminderDispatcher.
+     *
+     * @param sink                 Where notifications are delivered.
+     * @param queueCapacity        How many due reminders can wait before new ones are dropped.
+     * @param batchSize            The most notifications sent to the sink at once.
+     * @param maxBatchDelayMillis  How long a minute stays open after its last reminder arrived, in milliseconds.
+     * @param maxAttempts          How many times a batch is tried before its notifications are counted as failed.
+     * @param initialBackoffMillis The wait before the first retry, doubled for every retry after it, in milliseconds.
+     */
+    public ReminderDispatcher(ReminderSink sink, int queueCapacity, int batchSize, long maxBatchDelayMillis,
+                              int maxAttempts, long initialBackoffMillis) {
+        if (queueCapacity < 1 || batchSize < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("Queue capacity, batch size and attempts must be at least 1");
+        }
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.maxBatchDelayMillis = maxBatchDelayMillis;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Queues a due reminder for delivery without waiting.
+     *
+     * @param dueReminder The reminder and the minute it is due.
+     * @return true if it was queued, false if the queue was full or the dispatcher was shut down and it was dropped.
+     */
+    public boolean offer(DueReminder dueReminder) {
+        if (!stopped && queue.offer(dueReminder)) {
+            enqueued.incrementAndGet();
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Starts delivering in the background.
+     */
+    public synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+        running = true;
+        startedAt = System.nanoTime();
+        worker = new Thread(this::run, "reminder-dispatcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops accepting reminders and waits for the ones already queued to be delivered.
+     * Reminders offered from now on are dropped.
+     *
+     * @param timeoutMillis How long to wait, in milliseconds.
+     * @return true if everything queued was delivered or given up on in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        Thread stopping;
+        synchronized (this) {
+            stopped = true;
+            running = false;
+            stopping = worker;
+            worker = null;
+        }
+        if (stopping != null) {
+            stopping.join(timeoutMillis);
+            if (stopping.isAlive()) {
+                return false;
+            }
+        }
+        // Anything an offer slipped in after the worker's last look will never be delivered.
+        List<DueReminder> leftover = new ArrayList<>();
+        dropped.addAndGet(queue.drainTo(leftover));
+        return true;
+    }
+
+    /**
+     * Gets the number of due reminders queued.
+     *
+     * @return The number of reminders accepted by offer.
+     */
+    public long getEnqueuedCount() {
+        return enqueued.get();
+    }
+
+    /**
+     * Gets the number of due reminders dropped because the queue was full or the dispatcher was shut down,
+     * or because they were still waiting to be sent when the dispatcher was interrupted or hit an unexpected error.
+     *
+     * @return The number of dropped reminders.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the number of notifications delivered. A notification may carry several reminders.
+     *
+     * @return The number of delivered notifications.
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * Gets the number of due reminders delivered, counting each reminder in a combined notification.
+     *
+     * @return The number of delivered reminders.
+     */
+    public long getDeliveredReminderCount() {
+        return deliveredReminders.get();
+    }
+
+    /**
+     * Gets the number of notifications given up on after every attempt failed.
+     *
+     * @return The number of failed notifications.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Gets the number of times a batch was retried.
+     *
+     * @return The number of retries.
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * Gets the number of due reminders waiting in the queue.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Gets how late the last notification was delivered, measured from the minute it was due.
+     *
+     * @return The lag in milliseconds.
+     */
+    public long getLastLagMillis() {
+        return lastLagMillis.get();
+    }
+
+    /**
+     * Gets the latest any notification was delivered, measured from the minute it was due.
+     *
+     * @return The maximum lag in milliseconds.
+     */
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    /**
+     * Gets how late notifications were delivered on average, measured from the minute they were due.
+     *
+     * @return The average lag in milliseconds.
+     */
+    public double getAverageLagMillis() {
+        long count = delivered.get();
+        return count == 0 ? 0 : (double) totalLagMillis.get() / count;
+    }
+
+    /**
+     * Gets the delivery throughput since the dispatcher started.
+     *
+     * @return The number of notifications delivered per second.
+     */
+    public double getDeliveredPerSecond() {
+        long elapsed = System.nanoTime() - startedAt;
+        return startedAt == 0 || elapsed <= 0 ? 0 : delivered.get() * 1_000_000_000.0 / elapsed;
+    }
+
+    private void run() {
+        // Open notifications by minute, then by user in arrival order.
+        TreeMap<Long, OpenMinute> open = new TreeMap<>();
+        List<DueReminder> drained = new ArrayList<>(batchSize);
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+        while (running || !queue.isEmpty() || !open.isEmpty()) {
+            try {
+                // Every minute but the latest is complete and already sent, so only the latest can be waiting.
+                long wait = open.isEmpty() ? TimeUnit.MILLISECONDS.toNanos(100)
+                        : Math.max(0, open.lastEntry().getValue().lastArrival + delayNanos - System.nanoTime());
+                DueReminder first = running ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                if (first != null) {
+                    drained.add(first);
+                    queue.drainTo(drained);
+                }
+                long now = System.nanoTime();
+                for (DueReminder dueReminder : drained) {
+                    OpenMinute minute = open.computeIfAbsent(dueReminder.getFireMinute(), ignored -> new OpenMinute());
+                    minute.add(dueReminder, now);
+                }
+                drained.clear();
+                deliverCompleted(open, now - delayNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropOpen(open);
+                dropped.addAndGet(drained.size());
+                return;
+            } catch (RuntimeException error) {
+                // A bug in one batch must not stop delivery of the rest.
+                error.printStackTrace();
+                dropOpen(open);
+                dropped.addAndGet(drained.size());
+                drained.clear();
+            }
+        }
+    }
+
+    // Sends whole minutes once complete: every minute before the latest one seen, the latest once it has been
+    // quiet since quietBefore, and all of them once the dispatcher is shutting down.
+    private void deliverCompleted(TreeMap<Long, OpenMinute> open, long quietBefore) throws InterruptedException {
+        List<ReminderNotification> batch = new ArrayList<>(batchSize);
+        while (!open.isEmpty()) {
+            Map.Entry<Long, OpenMinute> oldest = open.firstEntry();
+            if (running && open.size() == 1 && oldest.getValue().lastArrival > quietBefore) {
+                break;
+            }
+            open.pollFirstEntry();
+            for (ReminderNotification notification : oldest.getValue().byUser.values()) {
+                batch.add(notification);
+                if (batch.size() == batchSize) {
+                    deliver(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            deliver(batch);
+        }
+    }
+
+    // Counts the reminders of notifications that will never be sent as dropped.
+    private void dropOpen(TreeMap<Long, OpenMinute> open) {
+        for (OpenMinute minute : open.values()) {
+            dropped.addAndGet(minute.reminderCount);
+        }
+        open.clear();
+    }
+
+    // The notifications of one minute, by user, and when the minute last got a reminder.
+    private static class OpenMinute {
+        private final Map<Integer, ReminderNotification> byUser = new LinkedHashMap<>();
+        private long lastArrival;
+        private int reminderCount;
+
+        private void add(DueReminder dueReminder, long now) {
+            int userId = dueReminder.getReminder().getUserId();
+            byUser.computeIfAbsent(userId, ignored -> new ReminderNotification(userId, dueReminder.getFireAt()))
+                    .addReminder(dueReminder.getReminder());
+            lastArrival = now;
+            reminderCount++;
+        }
+    }
+
+    private void deliver(List<ReminderNotification> notifications) throws InterruptedException {
+        long backoff = initialBackoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                sink.deliver(notifications);
+                recordDelivered(notifications);
+                return;
+            } catch (IOException | RuntimeException error) {
+                if (attempt >= maxAttempts) {
+                    error.printStackTrace();
+                    failed.addAndGet(notifications.size());
+                    return;
+                }
+                retries.incrementAndGet();
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    failed.addAndGet(notifications.size());
+                    throw e;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    private void recordDelivered(List<ReminderNotification> notifications) {
+        LocalDateTime now = LocalDateTime.now();
+        for (ReminderNotification notification : notifications) {
+            long lag = Math.max(0, Duration.between(notification.getFireAt(), now).toMillis());
+            totalLagMillis.addAndGet(lag);
+            maxLagMillis.accumulateAndGet(lag, Math::max);
+            lastLagMillis.set(lag);
+            deliveredReminders.addAndGet(notification.getReminders().size());
+        }
+        delivered.addAndGet(notifications.size());
+    }
+}
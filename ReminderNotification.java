@@ -0,0 +1,76 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The ReminderNotification class represents one notification to a user: every medicine they are due to take at the same minute.
+ */
+public class ReminderNotification {
+    private final int userId;
+    private final LocalDateTime fireAt;
+    private final List<MedicineReminder> reminders = new ArrayList<>(2);
+
+    /**
+     * Constructs a ReminderNotification object with no reminders yet.
+     *
+     * @param userId The ID of the user to notify.
+     * @param fireAt The minute the reminders are due.
+     */
+    public ReminderNotification(int userId, LocalDateTime fireAt) {
+        this.userId = userId;
+        this.fireAt = fireAt;
+    }
+
+    /**
+     * Adds a reminder due at the notification's minute.
+     *
+     * @param reminder The medicine reminder.
+     */
+    public void addReminder(MedicineReminder reminder) {
+        reminders.add(reminder);
+    }
+
+    /**
+     * Gets the ID of the user to notify.
+     *
+     * @return The ID of the user.
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Gets the minute the reminders are due.
+     *
+     * @return The fire time.
+     */
+    public LocalDateTime getFireAt() {
+        return fireAt;
+    }
+
+    /**
+     * Gets the reminders due at the notification's minute.
+     *
+     * @return An unmodifiable list of the reminders.
+     */
+    public List<MedicineReminder> getReminders() {
+        return Collections.unmodifiableList(reminders);
+    }
+
+    /**
+     * Returns a string representation of the ReminderNotification object.
+     *
+     * @return A string representation of the ReminderNotification object.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(fireAt).append(" user ").append(userId).append(':');
+        for (int i = 0; i < reminders.size(); i++) {
+            MedicineReminder reminder = reminders.get(i);
+            text.append(i == 0 ? " " : ", ").append(reminder.getMedicineName()).append(' ').append(reminder.getDosage());
+        }
+        return text.toString();
+    }
+}
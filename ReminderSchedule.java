@@ -0,0 +1,355 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The ReminderSchedule class is the compiled form of a medicine reminder's schedule string: the times of day as a
+ * sorted array of minutes after midnight, the days of the week it applies to as a bitmask, and an optional
+ * "every N days" interval counted from the reminder's start date.
+ * The schedule string is parsed once, and nextFireAfter is a binary search that allocates nothing.
+ * Schedules are immutable and can be shared between threads.
+ * <p>
+ * The parser understands comma or semicolon separated parts such as "8:00 AM", "20:00", "8 pm",
+ * "every 6 hours from 6:00 AM", "every 2 days", "every other day", "daily", "weekdays", "weekends"
+ * and day names such as "Mon Wed Fri", "Tuesday" or "Thurs". Day names must be whole words, so "monthly" or
+ * "Monday-ish" do not restrict the days. Text the parser does not understand is not guessed at; it is kept
+ * and can be read with getUnparsed.
+ */
+public class ReminderSchedule {
+    /** The weekday mask of a schedule that applies every day. Bit 0 is Monday, bit 6 is Sunday. */
+    public static final int ALL_DAYS = 0x7F;
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    // A time needs minutes or AM/PM, so numbers such as the "2" in "every 2 days" are not taken for times.
+    private static final Pattern TIME = Pattern.compile(
+            "\\b(\\d{1,2}):(\\d{2})\\s*(?:([ap])\\.?m\\.?)?|\\b(\\d{1,2})\\s*([ap])\\.?m\\b\\.?");
+    private static final Pattern EVERY_HOURS = Pattern.compile("every\\s+(\\d{1,2})\\s+hours?(?:\\s+(?:from|starting(?:\\s+at)?)\\s+(.+))?");
+    private static final Pattern EVERY_DAYS = Pattern.compile("every\\s+(\\d{1,3})\\s+days?");
+    // Only full day names and their usual abbreviations, optionally plural, and not as part of a longer word.
+    private static final Pattern DAY_NAME = Pattern.compile(
+            "(?<![\\w-])(?:(mon(?:day)?|tue(?:s(?:day)?)?|wed(?:nesday)?|thu(?:r(?:s(?:day)?)?)?|fri(?:day)?"
+            + "|sat(?:urday)?|sun(?:day)?)s?|(weekdays|weekends))(?![\\w-])");
+    // Words that carry no meaning of their own once the times, days and intervals have been read.
+    private static final Pattern FILLER = Pattern.compile("\\b(?:daily|every\\s+day|each\\s+day|at|and|on)\\b|[&.]");
+    private static final String[] DAY_PREFIXES = { "mon", "tue", "wed", "thu", "fri", "sat", "sun" };
+
+    private static final ReminderSchedule EMPTY = new ReminderSchedule(new short[0], ALL_DAYS, 1, 0);
+
+    private final short[] minutes;
+    private final int weekdayMask;
+    private final int intervalDays;
+    private final long anchorDay;
+    private final String unparsed;
+
+    /**
+     * Constructs a ReminderSchedule from its compiled parts.
+     *
+     * @param minutes      The times of day in minutes after midnight. They are copied, sorted and deduplicated.
+     * @param weekdayMask  The days of the week it applies to, bit 0 for Monday through bit 6 for Sunday.
+     * @param intervalDays Applies every this many days, 1 for every day.
+     * @param anchorDay    The epoch day the interval is counted from, usually the reminder's start date.
+     */
+    public ReminderSchedule(short[] minutes, int weekdayMask, int intervalDays, long anchorDay) {
+        this(minutes, weekdayMask, intervalDays, anchorDay, "");
+    }
+
+    private ReminderSchedule(short[] minutes, int weekdayMask, int intervalDays, long anchorDay, String unparsed) {
+        if (intervalDays < 1) {
+            throw new IllegalArgumentException("The interval must be at least 1 day");
+        }
+        short[] sorted = minutes.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] < 0 || sorted[i] >= MINUTES_PER_DAY) {
+                throw new IllegalArgumentException("Not a minute of the day: " + sorted[i]);
+            }
+            if (count == 0 || sorted[count - 1] != sorted[i]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        this.minutes = Arrays.copyOf(sorted, count);
+        this.weekdayMask = weekdayMask & ALL_DAYS;
+        this.intervalDays = intervalDays;
+        this.anchorDay = anchorDay;
+        this.unparsed = unparsed;
+    }
+
+    /**
+     * Parses a schedule string.
+     *
+     * @param schedule  The schedule, such as "12:00 PM, 8:00 PM" or "Mon Wed Fri, 9:00 AM".
+     * @param startDate The reminder's start date, which "every N days" counts from. May be null if there is no interval.
+     * @return The compiled schedule, with no times if none could be read and any text it could not read in getUnparsed.
+     */
+    public static ReminderSchedule parse(String schedule, LocalDate startDate) {
+        if (schedule == null || schedule.isBlank()) {
+            return EMPTY;
+        }
+        short[] minutes = new short[8];
+        int count = 0;
+        int weekdayMask = 0;
+        int intervalDays = 1;
+        StringBuilder unparsed = new StringBuilder();
+
+        for (String rawPart : schedule.toLowerCase(Locale.ROOT).split("[,;]")) {
+            String part = rawPart.trim();
+            Matcher everyHours = EVERY_HOURS.matcher(part);
+            if (everyHours.matches()) {
+                int hours = Integer.parseInt(everyHours.group(1));
+                int first = everyHours.group(2) == null ? 0 : firstTime(everyHours.group(2));
+                if (hours >= 1 && hours <= 24 && first >= 0) {
+                    // The day restarts from the first time, so "every 5 hours" does not drift from day to day.
+                    for (int minute = first; minute < first + MINUTES_PER_DAY; minute += hours * 60) {
+                        minutes = append(minutes, count++, minute % MINUTES_PER_DAY);
+                    }
+                } else {
+                    addUnparsed(unparsed, part);
+                }
+                continue;
+            }
+            Matcher everyDays = EVERY_DAYS.matcher(part);
+            if (everyDays.find()) {
+                intervalDays = Math.max(1, Integer.parseInt(everyDays.group(1)));
+                part = everyDays.replaceAll(" ");
+            } else if (part.contains("every other day")) {
+                intervalDays = 2;
+                part = part.replace("every other day", " ");
+            }
+            Matcher dayName = DAY_NAME.matcher(part);
+            while (dayName.find()) {
+                if (dayName.group(1) != null) {
+                    weekdayMask |= 1 << Arrays.asList(DAY_PREFIXES).indexOf(dayName.group(1).substring(0, 3));
+                } else {
+                    weekdayMask |= dayName.group(2).equals("weekdays") ? 0x1F : 0x60;
+                }
+            }
+            Matcher time = TIME.matcher(part);
+            while (time.find()) {
+                int minute = toMinute(time);
+                if (minute >= 0) {
+                    minutes = append(minutes, count++, minute);
+                } else {
+                    addUnparsed(unparsed, time.group());
+                }
+            }
+            String rest = FILLER.matcher(TIME.matcher(DAY_NAME.matcher(part).replaceAll(" ")).replaceAll(" ")).replaceAll(" ");
+            addUnparsed(unparsed, rest.trim().replaceAll("\\s+", " "));
+        }
+        long anchorDay = startDate == null ? 0 : startDate.toEpochDay();
+        return new ReminderSchedule(Arrays.copyOf(minutes, count), weekdayMask == 0 ? ALL_DAYS : weekdayMask, intervalDays,
+                anchorDay, unparsed.toString());
+    }
+
+    /**
+     * Finds the first fire time strictly after a given minute. Allocates nothing.
+     *
+     * @param epochMinute The minute to search after, counted from 1970-01-01T00:00 in local time.
+     * @return The next fire time in the same minute count, or -1 if the schedule has no times.
+     */
+    public long nextFireAfter(long epochMinute) {
+        if (minutes.length == 0) {
+            return -1;
+        }
+        long day = Math.floorDiv(epochMinute, MINUTES_PER_DAY);
+        int after = (int) (epochMinute - day * MINUTES_PER_DAY);
+        // Within one week of matching days the pattern has repeated, so there is always an answer by then.
+        long lastDay = day + 7L * intervalDays;
+        for (long d = day; d <= lastDay; d++) {
+            if (!firesOn(d)) {
+                continue;
+            }
+            int index = d == day ? firstIndexAfter(after) : 0;
+            if (index < minutes.length) {
+                return d * MINUTES_PER_DAY + minutes[index];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first fire time strictly after a given time.
+     *
+     * @param after The time to search after.
+     * @return The next fire time, or null if the schedule has no times.
+     */
+    public LocalDateTime nextFireAfter(LocalDateTime after) {
+        long next = nextFireAfter(DueReminder.epochMinute(after));
+        if (next < 0) {
+            return null;
+        }
+        long day = Math.floorDiv(next, MINUTES_PER_DAY);
+        return LocalDate.ofEpochDay(day).atStartOfDay().plusMinutes(next - day * MINUTES_PER_DAY);
+    }
+
+    /**
+     * Checks whether the schedule applies on a day, by weekday and interval.
+     *
+     * @param epochDay The day, as a count of days from 1970-01-01.
+     * @return true if the schedule's times fire on that day.
+     */
+    public boolean firesOn(long epochDay) {
+        // 1970-01-01 was a Thursday, bit 3.
+        int weekday = (int) Math.floorMod(epochDay + 3, 7L);
+        return (weekdayMask & (1 << weekday)) != 0 && Math.floorMod(epochDay - anchorDay, (long) intervalDays) == 0;
+    }
+
+    /**
+     * Checks whether the schedule applies on a day of the week, ignoring the interval.
+     *
+     * @param dayOfWeek The day of the week.
+     * @return true if the day is in the weekday mask.
+     */
+    public boolean includes(DayOfWeek dayOfWeek) {
+        return (weekdayMask & (1 << (dayOfWeek.getValue() - 1))) != 0;
+    }
+
+    /**
+     * Gets the number of times of day.
+     *
+     * @return The number of times.
+     */
+    public int getMinuteCount() {
+        return minutes.length;
+    }
+
+    /**
+     * Gets one time of day.
+     *
+     * @param index The index of the time, in ascending order.
+     * @return The time in minutes after midnight.
+     */
+    public int getMinute(int index) {
+        return minutes[index];
+    }
+
+    /**
+     * Gets the times of day.
+     *
+     * @return A copy of the sorted times in minutes after midnight.
+     */
+    public short[] getMinutes() {
+        return minutes.clone();
+    }
+
+    /**
+     * Gets the days of the week the schedule applies to.
+     *
+     * @return The mask, bit 0 for Monday through bit 6 for Sunday.
+     */
+    public int getWeekdayMask() {
+        return weekdayMask;
+    }
+
+    /**
+     * Gets how often, in days, the schedule applies.
+     *
+     * @return The interval, 1 for every day.
+     */
+    public int getIntervalDays() {
+        return intervalDays;
+    }
+
+    /**
+     * Gets the parts of the schedule string the parser did not understand and so did not act on.
+     *
+     * @return The unread text, separated by "; ", or an empty string if the whole schedule was read.
+     */
+    public String getUnparsed() {
+        return unparsed;
+    }
+
+    /**
+     * Checks whether the parser understood the whole schedule string.
+     *
+     * @return true if no text was left unread.
+     */
+    public boolean isFullyParsed() {
+        return unparsed.isEmpty();
+    }
+
+    /**
+     * Returns a string representation of the ReminderSchedule object.
+     *
+     * @return A string representation of the ReminderSchedule object.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (short minute : minutes) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(String.format("%02d:%02d", minute / 60, minute % 60));
+        }
+        if (weekdayMask != ALL_DAYS) {
+            text.append(" on");
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if (includes(day)) {
+                    text.append(' ').append(day.toString(), 0, 3);
+                }
+            }
+        }
+        if (intervalDays > 1) {
+            text.append(" every ").append(intervalDays).append(" days");
+        }
+        return text.toString();
+    }
+
+    private int firstIndexAfter(int minute) {
+        int low = 0;
+        int high = minutes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (minutes[middle] <= minute) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int firstTime(String text) {
+        Matcher time = TIME.matcher(text);
+        return time.find() ? toMinute(time) : -1;
+    }
+
+    // Minutes after midnight of a TIME match, or -1 if it is not a valid time.
+    private static int toMinute(Matcher time) {
+        boolean withMinutes = time.group(1) != null;
+        int hour = Integer.parseInt(withMinutes ? time.group(1) : time.group(4));
+        int minute = withMinutes ? Integer.parseInt(time.group(2)) : 0;
+        String half = withMinutes ? time.group(3) : time.group(5);
+        if (half != null) {
+            if (hour < 1 || hour > 12) {
+                return -1;
+            }
+            hour = hour % 12 + (half.equals("p") ? 12 : 0);
+        }
+        if (hour > 23 || minute > 59) {
+            return -1;
+        }
+        return hour * 60 + minute;
+    }
+
+    private static void addUnparsed(StringBuilder unparsed, String text) {
+        if (!text.isEmpty()) {
+            if (unparsed.length() > 0) {
+                unparsed.append("; ");
+            }
+            unparsed.append(text);
+        }
+    }
+
+    private static short[] append(short[] minutes, int index, int minute) {
+        short[] target = index < minutes.length ? minutes : Arrays.copyOf(minutes, minutes.length * 2);
+        target[index] = (short) minute;
+        return target;
+    }
+}
@@ -0,0 +1,17 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A destination that reminder notifications are delivered to, such as a push service or a log.
+ */
+public interface ReminderSink {
+
+    /**
+     * Delivers a batch of notifications. If it throws, the whole batch is retried, so a sink that can partially
+     * succeed should be safe to call again with notifications it already delivered.
+     *
+     * @param notifications The notifications to deliver.
+     * @throws IOException If the batch could not be delivered.
+     */
+    void deliver(List<ReminderNotification> notifications) throws IOException;
+}
@@ -0,0 +1,375 @@
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * The ReminderTimingWheel class fires medicine reminders at the right minute for every user at once.
+ * It is a hashed timing wheel: one slot per minute of the day, and a reminder due at a given minute is kept in
+ * the slot for that minute of the day. Each tick only looks at one slot, so the cost of a tick depends on the
+ * reminders due in that minute, not on how many are scheduled in total. A reminder more than a day ahead
+ * stays in its slot until the tick that reaches its fire time.
+ * Active reminders are loaded from the database a day at a time, shortly before the day starts, with one scan
+ * across all users, on a loader thread of its own so ticking carries on meanwhile. A load that fails schedules
+ * nothing and is tried again. While it runs, the wheel is told by its MedicineReminderManager about reminders
+ * created, changed or deleted after their day was loaded, and reschedules them. Reminders always fire on the
+ * ticking thread. Several wheels can split the users between them by shard.
+ */
+public class ReminderTimingWheel {
+    private static final int SLOTS = 24 * 60;
+    private static final LocalTime PRELOAD_AT = LocalTime.of(23, 0);
+    private static final long LOAD_RETRY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final MedicineReminderManager reminderManager;
+    private final Consumer<DueReminder> callback;
+    private final int shard;
+    private final int shardCount;
+    private final List<List<DueReminder>> slots = new ArrayList<>(SLOTS);
+    // Reminders scheduled after their minute had passed, fired on the next tick.
+    private final Queue<DueReminder> overdue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong fired = new AtomicLong();
+
+    // Only changed by advanceTo, which is synchronized.
+    private volatile long lastTick;
+    // Only changed by loadDay, under loadLock, once a day has been fully scheduled.
+    private volatile LocalDate loadedThrough;
+    private ScheduledExecutorService ticker;
+    private ExecutorService loader;
+    private final Object loadLock = new Object();
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private volatile long nextLoadAttempt;
+
+    /**
+     * Constructs a ReminderTimingWheel whose clock starts at the current minute.
+     *
+     * @param reminderManager Reads the active reminders.
+     * @param callback        Called with each reminder when it is due, on the ticking thread. It should hand the
+     *                        reminder off rather than do slow work, since every other reminder due that minute waits.
+     */
+    public ReminderTimingWheel(MedicineReminderManager reminderManager, Consumer<DueReminder> callback) {
+        this(reminderManager, callback, 0, 1);
+    }
+
+    /**
+     * Constructs a ReminderTimingWheel that only loads the reminders of one shard of the users.
+     *
+     * @param reminderManager Reads the due reminders.
+     * @param callback        Called with each reminder when it is due, on the ticking thread.
+     * @param shard           This wheel's shard, from 0 to shardCount - 1.
+     * @param shardCount      The number of wheels splitting the users by user ID modulo shardCount.
+     */
+    public ReminderTimingWheel(MedicineReminderManager reminderManager, Consumer<DueReminder> callback, int shard, int shardCount) {
+        if (shardCount < 1 || shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException("The shard must be between 0 and shardCount - 1");
+        }
+        this.reminderManager = reminderManager;
+        this.callback = callback;
+        this.shard = shard;
+        this.shardCount = shardCount;
+        for (int i = 0; i < SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+        lastTick = DueReminder.epochMinute(LocalDateTime.now());
+    }
+
+    /**
+     * Schedules one fire time. A time that has already passed fires on the next tick, within a second when started.
+     *
+     * @param dueReminder The reminder and its fire time.
+     */
+    public void schedule(DueReminder dueReminder) {
+        long minute = dueReminder.getFireMinute();
+        List<DueReminder> slot = slots.get(slotOf(minute));
+        synchronized (slot) {
+            // Checked under the slot's lock, so a tick cannot pass this minute between the check and the add.
+            if (minute > lastTick) {
+                slot.add(dueReminder);
+                scheduled.incrementAndGet();
+                return;
+            }
+        }
+        // Fired by the ticking thread like every other reminder, not on the thread scheduling it.
+        scheduled.incrementAndGet();
+        overdue.add(dueReminder);
+    }
+
+    /**
+     * Replaces the fire times of a reminder on the days already loaded, for a reminder created or changed after
+     * they were loaded. Reminders of users outside this wheel's shard are only removed.
+     *
+     * @param reminder The reminder as it is now stored.
+     * @return The number of fire times scheduled.
+     */
+    public int reschedule(MedicineReminder reminder) {
+        // Under the load lock, so a load running at the same time cannot bring back the old fire times.
+        synchronized (loadLock) {
+            unschedule(reminder.getId());
+            LocalDate through = loadedThrough;
+            if (through == null || Math.floorMod(reminder.getUserId(), shardCount) != shard) {
+                return 0;
+            }
+            int count = 0;
+            for (LocalDate day = LocalDate.ofEpochDay(Math.floorDiv(lastTick, SLOTS)); !day.isAfter(through); day = day.plusDays(1)) {
+                count += scheduleDay(reminder, day);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Removes every fire time of a reminder from the wheel, for a reminder that was deleted.
+     * Looks through every slot, so it costs as much as the number of fire times scheduled.
+     *
+     * @param reminderId The ID of the reminder.
+     * @return The number of fire times removed.
+     */
+    public int unschedule(int reminderId) {
+        if (reminderId == 0) {
+            // Not stored yet, so it cannot have been loaded.
+            return 0;
+        }
+        int count = 0;
+        for (List<DueReminder> slot : slots) {
+            synchronized (slot) {
+                Iterator<DueReminder> entries = slot.iterator();
+                while (entries.hasNext()) {
+                    if (entries.next().getReminder().getId() == reminderId) {
+                        entries.remove();
+                        count++;
+                    }
+                }
+            }
+        }
+        for (DueReminder late : overdue) {
+            // Only counted if the ticking thread did not take it first.
+            if (late.getReminder().getId() == reminderId && overdue.remove(late)) {
+                count++;
+            }
+        }
+        scheduled.addAndGet(-count);
+        return count;
+    }
+
+    /**
+     * Expands a reminder's schedule into its fire times on one day and schedules the ones still to come.
+     *
+     * @param reminder The reminder.
+     * @param date     The day to schedule.
+     * @return The number of fire times scheduled.
+     */
+    public int scheduleDay(MedicineReminder reminder, LocalDate date) {
+        if (date.isBefore(reminder.getStartDate()) || date.isAfter(reminder.getEndDate())) {
+            return 0;
+        }
+        ReminderSchedule schedule = reminder.getCompiledSchedule();
+        if (!schedule.firesOn(date.toEpochDay())) {
+            return 0;
+        }
+        long dayStart = date.toEpochDay() * SLOTS;
+        int count = 0;
+        for (int i = 0; i < schedule.getMinuteCount(); i++) {
+            int minuteOfDay = schedule.getMinute(i);
+            if (dayStart + minuteOfDay > lastTick) {
+                schedule(new DueReminder(reminder, date.atStartOfDay().plusMinutes(minuteOfDay)));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Loads the reminder times still to come on a day from the database, for this wheel's shard of the users, and schedules them.
+     * The whole day is read before anything is scheduled, so a load that fails part way schedules nothing and can
+     * simply be tried again. A day on or before the last day loaded is skipped, so nothing is scheduled twice.
+     * Runs on the calling thread; the ticking thread hands loads to a loader thread so reminders keep firing meanwhile,
+     * and reminders that came due while their day was loading fire on the next tick.
+     *
+     * @param date The day to load.
+     * @return The number of fire times scheduled.
+     * @throws IllegalStateException If the reminders could not be read, in which case nothing is scheduled.
+     */
+    public long loadDay(LocalDate date) {
+        synchronized (loadLock) {
+            if (loadedThrough != null && !date.isAfter(loadedThrough)) {
+                return 0;
+            }
+            LocalDateTime dayStart = date.atStartOfDay();
+            // Nothing before the current minute, it would only fire late.
+            LocalDateTime from = LocalDateTime.now().isAfter(dayStart) ? LocalDateTime.now() : dayStart;
+            Duration window = Duration.ofMinutes(DueReminder.epochMinute(date.plusDays(1).atStartOfDay()) - DueReminder.epochMinute(from));
+            List<DueReminder> loaded = new ArrayList<>();
+            try (Stream<DueReminder> due = reminderManager.streamDueReminders(from, window, shard, shardCount)) {
+                due.forEach(loaded::add);
+            }
+            for (DueReminder dueReminder : loaded) {
+                schedule(dueReminder);
+            }
+            loadedThrough = date;
+            return loaded.size();
+        }
+    }
+
+    /**
+     * Moves the clock forward, firing every reminder due up to and including the given minute,
+     * and any scheduled after their minute had already passed. After a long pause each slot is visited once, so overdue reminders fire together instead of the wheel
+     * turning over many times.
+     *
+     * @param now The current time.
+     * @return The number of reminders fired.
+     */
+    public synchronized int advanceTo(LocalDateTime now) {
+        long target = DueReminder.epochMinute(now);
+        int count = 0;
+        for (DueReminder late = overdue.poll(); late != null; late = overdue.poll()) {
+            scheduled.decrementAndGet();
+            fire(late);
+            count++;
+        }
+        long from = Math.max(lastTick + 1, target - SLOTS + 1);
+        for (long tick = from; tick <= target; tick++) {
+            List<DueReminder> due = new ArrayList<>();
+            List<DueReminder> slot = slots.get(slotOf(tick));
+            synchronized (slot) {
+                Iterator<DueReminder> entries = slot.iterator();
+                while (entries.hasNext()) {
+                    DueReminder entry = entries.next();
+                    if (entry.getFireMinute() <= tick) {
+                        due.add(entry);
+                        entries.remove();
+                    }
+                }
+                lastTick = tick;
+            }
+            scheduled.addAndGet(-due.size());
+            for (DueReminder dueReminder : due) {
+                fire(dueReminder);
+            }
+            count += due.size();
+        }
+        return count;
+    }
+
+    /**
+     * Starts ticking in the background: loads the rest of today, fires reminders as they come due and loads
+     * each next day an hour before it starts. Loads run on their own thread and are retried every 30 seconds
+     * while they fail. Also starts following reminder changes made through the MedicineReminderManager.
+     */
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        reminderManager.addTimingWheel(this);
+        loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reminder-wheel-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reminder-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loadInBackground(LocalDate.now());
+        // Checking every second keeps firing within a second of the minute without drifting.
+        ticker.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops ticking and following reminder changes. Scheduled reminders stay in the wheel.
+     */
+    public synchronized void stop() {
+        if (ticker != null) {
+            reminderManager.removeTimingWheel(this);
+            ticker.shutdownNow();
+            ticker = null;
+            loader.shutdownNow();
+            loader = null;
+        }
+    }
+
+    /**
+     * Gets the number of fire times waiting in the wheel.
+     *
+     * @return The number of scheduled reminders.
+     */
+    public long getScheduledCount() {
+        return scheduled.get();
+    }
+
+    /**
+     * Gets the number of reminders fired so far.
+     *
+     * @return The number of fired reminders.
+     */
+    public long getFiredCount() {
+        return fired.get();
+    }
+
+    private void tick() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            advanceTo(now);
+            LocalDate today = now.toLocalDate();
+            LocalDate through = loadedThrough;
+            if (through == null || through.isBefore(today)) {
+                // Not loaded yet, a failed load, or a missed preload, for example after the machine slept.
+                loadInBackground(today);
+            } else if (!now.toLocalTime().isBefore(PRELOAD_AT) && through.isBefore(today.plusDays(1))) {
+                loadInBackground(today.plusDays(1));
+            }
+        } catch (RuntimeException error) {
+            // A failed tick must not cancel the schedule.
+            error.printStackTrace();
+        }
+    }
+
+    // Loads a day on the loader thread unless a load is already running or the last one failed less than 30 seconds ago.
+    private void loadInBackground(LocalDate date) {
+        ExecutorService currentLoader = loader;
+        if (currentLoader == null || System.nanoTime() - nextLoadAttempt < 0 || !loading.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            currentLoader.execute(() -> {
+                try {
+                    loadDay(date);
+                } catch (RuntimeException error) {
+                    error.printStackTrace();
+                    nextLoadAttempt = System.nanoTime() + LOAD_RETRY_NANOS;
+                } finally {
+                    loading.set(false);
+                }
+            });
+        } catch (RejectedExecutionException stopped) {
+            loading.set(false);
+        }
+    }
+
+    private void fire(DueReminder dueReminder) {
+        fired.incrementAndGet();
+        try {
+            callback.accept(dueReminder);
+        } catch (RuntimeException error) {
+            error.printStackTrace();
+        }
+    }
+
+    private static int slotOf(long epochMinute) {
+        return (int) Math.floorMod(epochMinute, (long) SLOTS);
+    }
+}
@@ -0,0 +1,138 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams the rows of a query through a server-side cursor, so only one fetch of rows is in memory at a time.
+ * The stream holds a pooled connection until it is closed or read to the end, so it should be used in a
+ * try-with-resources block, especially when the caller may stop reading early.
+ */
+public class ResultSetStream {
+
+    /**
+     * Binds the parameters of a query.
+     */
+    public interface Binder {
+        /**
+         * Sets the parameters on the statement.
+         *
+         * @param statement The statement to bind.
+         * @throws SQLException If a parameter cannot be set.
+         */
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+
+    /**
+     * Turns the current row of a result set into an object.
+     *
+     * @param <T> The type of object a row becomes.
+     */
+    public interface RowMapper<T> {
+        /**
+         * Maps the current row.
+         *
+         * @param rs The result set, positioned on the row to map.
+         * @return The mapped object.
+         * @throws SQLException If a column cannot be read.
+         */
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Runs a query and streams its rows.
+     *
+     * @param query     The SQL query.
+     * @param fetchSize How many rows Postgres sends per round trip.
+     * @param binder    Sets the query parameters.
+     * @param mapper    Maps each row.
+     * @param <T>       The type of object a row becomes.
+     * @return A stream of the mapped rows. Closing it releases the cursor and the connection.
+     * @throws SQLException If the query could not be started.
+     */
+    public static <T> Stream<T> open(String query, int fetchSize, Binder binder, RowMapper<T> mapper) throws SQLException {
+        Connection db = DatabaseConnection.getConnection();
+        PreparedStatement statement = null;
+        ResultSet rs;
+        try {
+            // Postgres only uses a cursor (and honours the fetch size) inside a transaction.
+            db.setAutoCommit(false);
+            db.setReadOnly(true);
+            // Not the cached prepareStatement(sql) overload, the fetch size is specific to this statement.
+            statement = db.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            binder.bind(statement);
+            rs = statement.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            closeQuietly(statement);
+            closeQuietly(db);
+            throw e;
+        }
+
+        Cursor<T> cursor = new Cursor<>(db, statement, rs, mapper);
+        return StreamSupport.stream(cursor, false).onClose(cursor::close);
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (Exception e) {
+            // Already finished with the resource, nothing else to do.
+        }
+    }
+
+    /**
+     * Walks the result set one row per tryAdvance and releases everything once it is exhausted or closed.
+     */
+    private static class Cursor<T> extends Spliterators.AbstractSpliterator<T> {
+        private final Connection db;
+        private final PreparedStatement statement;
+        private final ResultSet rs;
+        private final RowMapper<T> mapper;
+        private boolean closed = false;
+
+        private Cursor(Connection db, PreparedStatement statement, ResultSet rs, RowMapper<T> mapper) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.db = db;
+            this.statement = statement;
+            this.rs = rs;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (closed) {
+                return false;
+            }
+            try {
+                if (!rs.next()) {
+                    close();
+                    return false;
+                }
+                action.accept(mapper.map(rs));
+                return true;
+            } catch (SQLException e) {
+                close();
+                throw new IllegalStateException("Failed to read the next row", e);
+            }
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeQuietly(rs);
+            closeQuietly(statement);
+            closeQuietly(db);
+        }
+    }
+}
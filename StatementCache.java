@@ -0,0 +1,249 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least recently used cache of prepared statements belonging to one pooled connection.
+ * Statements handed out by the cache are only reset when they are closed, so the same SQL keeps
+ * using the statement Postgres already parsed and planned for this connection.
+ */
+public class StatementCache {
+    private final int maxSize;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    /**
+     * Constructs a StatementCache.
+     *
+     * @param maxSize The maximum number of statements kept open for the connection.
+     * @param hits    The counter incremented when a statement is reused.
+     * @param misses  The counter incremented when a statement has to be prepared.
+     */
+    public StatementCache(int maxSize, AtomicLong hits, AtomicLong misses) {
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Gets the cached statement for the given SQL, preparing it if it is not cached yet.
+     *
+     * @param key        The cache key, the SQL text plus any options the statement was prepared with.
+     * @param connection The pooled connection the caller borrowed, returned by the statement's getConnection().
+     * @param preparer   Prepares the statement on the physical connection on a cache miss.
+     * @return A statement whose close() returns it to the cache.
+     * @throws SQLException If the statement could not be prepared.
+     */
+    public PreparedStatement get(String key, Connection connection, Preparer preparer) throws SQLException {
+        CachedStatement cached = statements.get(key);
+        if (cached != null && cached.discarded) {
+            statements.remove(key);
+            cached = null;
+        }
+        if (cached != null && !cached.inUse) {
+            hits.incrementAndGet();
+            return cached.checkOut(connection);
+        }
+        misses.incrementAndGet();
+        PreparedStatement statement = preparer.prepare();
+        if (cached != null) {
+            // The cached copy is still open further up the call stack, so this one is not kept.
+            return statement;
+        }
+        cached = new CachedStatement(statement);
+        statements.put(key, cached);
+        evictOverflow();
+        return cached.checkOut(connection);
+    }
+
+    /**
+     * Gets the number of statements currently cached.
+     *
+     * @return The number of cached statements.
+     */
+    public int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes every cached statement, used when the physical connection is closed.
+     */
+    public void closeAll() {
+        for (CachedStatement cached : statements.values()) {
+            cached.closePhysically();
+        }
+        statements.clear();
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, CachedStatement>> leastRecent = statements.entrySet().iterator();
+        while (statements.size() > maxSize && leastRecent.hasNext()) {
+            CachedStatement cached = leastRecent.next().getValue();
+            leastRecent.remove();
+            if (cached.inUse) {
+                cached.discarded = true;
+            } else {
+                cached.closePhysically();
+            }
+        }
+    }
+
+    /**
+     * Prepares a statement on the physical connection.
+     */
+    public interface Preparer {
+        /**
+         * Prepares the statement.
+         *
+         * @return The prepared statement.
+         * @throws SQLException If the statement could not be prepared.
+         */
+        PreparedStatement prepare() throws SQLException;
+    }
+
+    /**
+     * A physical statement and whether a caller currently holds it.
+     * The settings a caller may change are remembered as prepared, so the next caller starts from them.
+     */
+    private static class CachedStatement {
+        private final PreparedStatement raw;
+        private final int fetchSize;
+        private final int fetchDirection;
+        private final int maxRows;
+        private final int maxFieldSize;
+        private final int queryTimeout;
+        private boolean inUse = false;
+        private boolean discarded = false;
+
+        private CachedStatement(PreparedStatement raw) throws SQLException {
+            this.raw = raw;
+            this.fetchSize = raw.getFetchSize();
+            this.fetchDirection = raw.getFetchDirection();
+            this.maxRows = raw.getMaxRows();
+            this.maxFieldSize = raw.getMaxFieldSize();
+            this.queryTimeout = raw.getQueryTimeout();
+        }
+
+        private PreparedStatement checkOut(Connection connection) {
+            inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, new Lease(connection));
+        }
+
+        private void checkIn() {
+            inUse = false;
+            if (discarded) {
+                closePhysically();
+                return;
+            }
+            try {
+                ResultSet current = raw.getResultSet();
+                if (current != null) {
+                    current.close();
+                }
+                raw.clearParameters();
+                raw.clearBatch();
+                raw.clearWarnings();
+                raw.setFetchSize(fetchSize);
+                raw.setFetchDirection(fetchDirection);
+                raw.setMaxRows(maxRows);
+                raw.setMaxFieldSize(maxFieldSize);
+                raw.setQueryTimeout(queryTimeout);
+            } catch (SQLException e) {
+                discarded = true;
+                closePhysically();
+            }
+        }
+
+        private void closePhysically() {
+            try {
+                raw.close();
+            } catch (SQLException e) {
+                // Nothing useful to do with a statement that is being discarded.
+            }
+        }
+
+        /**
+         * One checkout of the statement, so closing it twice only checks it in once.
+         * getConnection() and the result sets' getStatement() hand back the pooled objects, never the physical ones,
+         * so closing through them still goes through the pool and the cache.
+         */
+        private class Lease implements InvocationHandler {
+            private final Connection connection;
+            private boolean closed = false;
+
+            private Lease(Connection connection) {
+                this.connection = connection;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!closed) {
+                            closed = true;
+                            checkIn();
+                        }
+                        return null;
+                    case "isClosed":
+                        return closed;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        break;
+                }
+                if (closed) {
+                    throw new SQLException("Statement has already been closed");
+                }
+                if (method.getName().equals("getConnection")) {
+                    return connection;
+                }
+                Object result;
+                try {
+                    result = method.invoke(raw, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if (result instanceof ResultSet) {
+                    return wrap((ResultSet) result, (PreparedStatement) proxy);
+                }
+                return result;
+            }
+        }
+    }
+
+    // Makes a result set report the statement proxy as its statement.
+    private static ResultSet wrap(ResultSet resultSet, PreparedStatement statement) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getStatement":
+                            return statement;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            break;
+                    }
+                    try {
+                        return method.invoke(resultSet, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
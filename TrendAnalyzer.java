@@ -0,0 +1,141 @@
+import java.util.ArrayDeque;
+
+/**
+ * The TrendAnalyzer class computes a user's rolling trends in a single pass over their readings, oldest first.
+ * It keeps running sums for a 7 day window (heart rate and steps mean and standard deviation) and a 30 day window
+ * (least squares fit of weight against day), adding each new reading and subtracting the ones that fall out of the
+ * windows, so every reading costs O(1) amortized however long the history is.
+ * The windows end at the latest reading added. Not thread-safe, use one analyzer per user.
+ */
+public class TrendAnalyzer {
+    /** The length of the heart rate and steps window, in days. */
+    public static final int SHORT_WINDOW_DAYS = 7;
+    /** The length of the weight slope window, in days. */
+    public static final int LONG_WINDOW_DAYS = 30;
+
+    private static final int MIN_SLOPE_READINGS = 3;
+
+    private final ArrayDeque<HealthData> shortWindow = new ArrayDeque<>();
+    private final ArrayDeque<HealthData> longWindow = new ArrayDeque<>();
+
+    // Integer sums are exact, so subtracting evicted readings never drifts.
+    private long heartRateSum;
+    private long heartRateSumOfSquares;
+    private long stepsSum;
+    private long stepsSumOfSquares;
+
+    // Days are counted from the first reading to keep the regression sums small.
+    private long firstDay = Long.MIN_VALUE;
+    private long lastDay = Long.MIN_VALUE;
+    private double daySum;
+    private double daySumOfSquares;
+    private double weightSum;
+    private double dayWeightSum;
+
+    /**
+     * Adds the next reading and moves both windows forward to its date.
+     *
+     * @param healthData The reading, not older than the readings already added. A reading without a date counts as today.
+     * @throws IllegalArgumentException If the reading is older than the last one added.
+     */
+    public void add(HealthData healthData) {
+        long day = HealthDataDao.dateOrToday(healthData).toEpochDay();
+        if (day < lastDay) {
+            throw new IllegalArgumentException("Readings must be added oldest first");
+        }
+        if (firstDay == Long.MIN_VALUE) {
+            firstDay = day;
+        }
+        lastDay = day;
+
+        shortWindow.addLast(healthData);
+        long heartRate = healthData.getHeartRate();
+        long steps = healthData.getSteps();
+        heartRateSum += heartRate;
+        heartRateSumOfSquares += heartRate * heartRate;
+        stepsSum += steps;
+        stepsSumOfSquares += steps * steps;
+
+        longWindow.addLast(healthData);
+        double x = day - firstDay;
+        daySum += x;
+        daySumOfSquares += x * x;
+        weightSum += healthData.getWeight();
+        dayWeightSum += x * healthData.getWeight();
+
+        while (dayOf(shortWindow.peekFirst()) <= day - SHORT_WINDOW_DAYS) {
+            HealthData evicted = shortWindow.removeFirst();
+            heartRate = evicted.getHeartRate();
+            steps = evicted.getSteps();
+            heartRateSum -= heartRate;
+            heartRateSumOfSquares -= heartRate * heartRate;
+            stepsSum -= steps;
+            stepsSumOfSquares -= steps * steps;
+        }
+        while (dayOf(longWindow.peekFirst()) <= day - LONG_WINDOW_DAYS) {
+            HealthData evicted = longWindow.removeFirst();
+            x = dayOf(evicted) - firstDay;
+            daySum -= x;
+            daySumOfSquares -= x * x;
+            weightSum -= evicted.getWeight();
+            dayWeightSum -= x * evicted.getWeight();
+        }
+    }
+
+    /**
+     * Gets the trends as of the latest reading added.
+     *
+     * @return A snapshot of the current windows.
+     */
+    public HealthTrends getTrends() {
+        int shortCount = shortWindow.size();
+        return new HealthTrends(shortWindow.peekLast(), shortCount,
+                mean(heartRateSum, shortCount), stdDev(heartRateSum, heartRateSumOfSquares, shortCount),
+                mean(stepsSum, shortCount), stdDev(stepsSum, stepsSumOfSquares, shortCount),
+                longWindow.size(), weightSlopePerDay() * 7);
+    }
+
+    /**
+     * Computes the trends of a history in one pass.
+     *
+     * @param readings The readings, oldest first.
+     * @return The trends as of the latest reading.
+     */
+    public static HealthTrends analyze(Iterable<HealthData> readings) {
+        TrendAnalyzer analyzer = new TrendAnalyzer();
+        for (HealthData healthData : readings) {
+            analyzer.add(healthData);
+        }
+        return analyzer.getTrends();
+    }
+
+    private double weightSlopePerDay() {
+        int n = longWindow.size();
+        if (n < MIN_SLOPE_READINGS) {
+            return Double.NaN;
+        }
+        double denominator = n * daySumOfSquares - daySum * daySum;
+        // All readings on the same day, there is no line to fit.
+        if (denominator < 1e-9) {
+            return Double.NaN;
+        }
+        return (n * dayWeightSum - daySum * weightSum) / denominator;
+    }
+
+    private static double mean(long sum, int count) {
+        return count == 0 ? Double.NaN : (double) sum / count;
+    }
+
+    // Sample standard deviation.
+    private static double stdDev(long sum, long sumOfSquares, int count) {
+        if (count < 2) {
+            return Double.NaN;
+        }
+        double variance = (sumOfSquares - (double) sum * sum / count) / (count - 1);
+        return Math.sqrt(Math.max(0, variance));
+    }
+
+    private static long dayOf(HealthData healthData) {
+        return HealthDataDao.dateOrToday(healthData).toEpochDay();
+    }
+}
@@ -1,11 +1,33 @@
-import org.mindrot.jbcrypt.BCrypt;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Data Access Object (DAO) for managing user data in the database.
  */
 
 public class UserDao {
+    private static final int REHASH_QUEUE_CAPACITY = 256;
+
+    // Stores upgraded password hashes, so the database update does not hold a thread of the BCrypt pool.
+    // Upgrades are best effort: when the queue is full the old hash is kept until the next login.
+    private static final ThreadPoolExecutor rehashWriter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(REHASH_QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "password-rehash");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+
+    private final CredentialService credentials = CredentialService.getInstance();
    
     /**
      * Creates a new user in the database.
@@ -16,15 +38,17 @@ public class UserDao {
     public boolean createUser(User user) {
         boolean bool = false;
         // insert user into database 
-        String hashedPassword = BCrypt.hashpw(user.getPassword(), BCrypt.gensalt());
+        String hashedPassword = hashPassword(user.getPassword());
+        if (hashedPassword == null) {
+            return bool;
+        }
 
         // Prepare the SQL query
         String query = "INSERT INTO users (first_name, last_name, email, password, is_doctor, medical_license, specialization) VALUES (?, ?, ?, ?, ?, ?, ?)";
 
         // Database logic to insert data using PREPARED Statement
-        try {
-        Connection db = DatabaseConnection.getCon();
-        PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
         statement.setString(1, user.getFirstName());
         statement.setString(2, user.getLastName());
         statement.setString(3, user.getEmail());
@@ -62,10 +86,9 @@ public class UserDao {
         // Prepare the SQL query
         String query = "SELECT * FROM users WHERE id = ?";
         
-        try {
         // Database logic to get data by ID Using Prepared Statement
-        Connection db = DatabaseConnection.getCon();
-        PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
 
         statement.setInt(1, id);
         ResultSet rs = statement.executeQuery();
@@ -85,6 +108,55 @@ public class UserDao {
         return new User(user_id, firstName, lastName, email, password, is_doctor, medicalLicenseNumber, specialization);
     }
 
+    /**
+     * Gets many users from the database in one query.
+     *
+     * @param ids The IDs of the users to retrieve.
+     * @return The users that were found, in the order their IDs were given, without duplicates.
+     */
+    public List<User> getUsersByIds(Collection<Integer> ids) {
+        List<User> users = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return users;
+        }
+        LinkedHashSet<Integer> uniqueIds = new LinkedHashSet<>(ids);
+
+        String query = "SELECT * FROM users WHERE id = ANY(?)";
+
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
+            statement.setArray(1, db.createArrayOf("integer", uniqueIds.toArray()));
+            ResultSet rs = statement.executeQuery();
+
+            Map<Integer, User> found = new HashMap<>();
+            while (rs.next()) {
+                User user = mapUser(rs);
+                found.put(user.getId(), user);
+            }
+            for (Integer id : uniqueIds) {
+                User user = found.get(id);
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+        } catch (SQLException error) {
+            error.printStackTrace();
+        }
+        return users;
+    }
+
+    /**
+     * Creates a User object from the current row of a users result set.
+     *
+     * @param rs The result set, positioned on a users row.
+     * @return The user in the row.
+     * @throws SQLException If a column cannot be read.
+     */
+    static User mapUser(ResultSet rs) throws SQLException {
+        return new User(rs.getInt("id"), rs.getString("first_name"), rs.getString("last_name"), rs.getString("email"),
+                rs.getString("password"), rs.getBoolean("is_doctor"), rs.getString("medical_license"), rs.getString("specialization"));
+    }
+
     /**
      * Gets a user from the database by their email address.
      *
@@ -105,9 +177,8 @@ public class UserDao {
         String query = "SELECT * FROM users WHERE email = ?";
 
         // Database logic to get data by ID Using Prepared Statement
-        try {
-            Connection db = DatabaseConnection.getCon();
-            PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
 
             statement.setString(1, email);
             ResultSet rs = statement.executeQuery();
@@ -138,14 +209,16 @@ public class UserDao {
     public boolean updateUser(User user) {
         boolean bool = false;
 
-        String hashedPassword = BCrypt.hashpw(user.getPassword(), BCrypt.gensalt());
+        String hashedPassword = hashPassword(user.getPassword());
+        if (hashedPassword == null) {
+            return bool;
+        }
 
         // Prepare the SQL query
-        String query = "UPDATE users SET first_name = ?, last_name = ?, email = ?, password = ?, isDoctor = ?, medical_license = ?, specialization = ?";
+        String query = "UPDATE users SET first_name = ?, last_name = ?, email = ?, password = ?, is_doctor = ?, medical_license = ?, specialization = ? WHERE id = ?";
         // Database logic to get update user Using Prepared Statement
-        try {
-            Connection db = DatabaseConnection.getCon();
-            PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
             statement.setString(1, user.getFirstName());
             statement.setString(2, user.getLastName());
             statement.setString(3, user.getEmail());
@@ -153,7 +226,12 @@ public class UserDao {
             statement.setBoolean(5, user.isDoctor());
             statement.setString(6, user.getMedicalLicenseNumber());
             statement.setString(7, user.getSpecialization());
+            statement.setInt(8, user.getId());
 
+            int updatedRow = statement.executeUpdate();
+            if(updatedRow != 0) {
+                bool = true;
+            }
         } catch (SQLException error) {
             error.printStackTrace();
         }
@@ -170,12 +248,11 @@ public class UserDao {
         boolean bool = false;
 
         // Prepare the SQL query
-        String query = "DELETE * FROM users WHERE id = ?";
+        String query = "DELETE FROM users WHERE id = ?";
 
         // Database logic to delete user
-        try {
-            Connection db = DatabaseConnection.getCon();
-            PreparedStatement statement = db.prepareStatement(query);
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
             statement.setInt(1, id);
 
             int updatedRow = statement.executeUpdate();
@@ -198,30 +275,81 @@ public class UserDao {
      */
     public boolean verifyPassword (String email, String password) {
         boolean bool = false;
+        try {
+            bool = verifyPasswordAsync(email, password).join();
+        } catch (CompletionException error) {
+            error.printStackTrace();
+        }
+        return bool;
+    }
+
+    /**
+     * Verify the password for a given user email without running BCrypt on the calling thread.
+     * The stored hash is read on the calling thread and the check runs on the CredentialService pool.
+     * When the password matches but the stored hash was made with a different cost than the current one,
+     * the password is hashed again with the current cost and stored in the background, on a thread of its own
+     * so the database update does not hold up the BCrypt pool.
+     *
+     * @param email    The email address of the user.
+     * @param password The password to verify.
+     * @return A future completing with true if the password matches, false otherwise. It fails with a
+     *         RejectedExecutionException when too many checks are already queued.
+     */
+    public CompletableFuture<Boolean> verifyPasswordAsync(String email, String password) {
+        String hashedPassword = null;
 
         String query = "SELECT password FROM users WHERE email = ?";    // SQL Statement
 
-        //Implement logic to retrieve password using the Bcrypt
-        try {
-        Connection db = DatabaseConnection.getCon();
-        PreparedStatement statement = db.prepareStatement(query);
+        // The connection goes back to the pool before the slow BCrypt check starts.
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
 
         statement.setString(1, email);
 
         ResultSet rs = statement.executeQuery();
 
-        String hashedPassword = null;
         while(rs.next()) {
             hashedPassword = rs.getString("password");
         }
-        if (BCrypt.checkpw(password, hashedPassword)) {
-            bool = true;
-        }
         
         } catch (SQLException error) {
             error.printStackTrace();
         }
-        return bool;
+        String storedHash = hashedPassword;
+        return credentials.verifyAsync(password, storedHash).thenApply(matches -> {
+            if (matches && credentials.needsRehash(storedHash)) {
+                // The login does not wait for the upgrade, and a failed upgrade leaves the old hash, which is still valid.
+                credentials.hashAsync(password)
+                        .thenAcceptAsync(newHash -> replacePasswordHash(email, storedHash, newHash), rehashWriter)
+                        .exceptionally(error -> null);
+            }
+            return matches;
+        });
+    }
+
+    // Only replaces the hash that was verified, so a password changed in the meantime is not overwritten.
+    private void replacePasswordHash(String email, String oldHash, String newHash) {
+        String query = "UPDATE users SET password = ? WHERE email = ? AND password = ?";
+
+        try (Connection db = DatabaseConnection.getConnection();
+             PreparedStatement statement = db.prepareStatement(query)) {
+            statement.setString(1, newHash);
+            statement.setString(2, email);
+            statement.setString(3, oldHash);
+            statement.executeUpdate();
+        } catch (SQLException error) {
+            error.printStackTrace();
+        }
+    }
+
+    // Hashes on the CredentialService pool, null if the pool rejected the work.
+    private String hashPassword(String password) {
+        try {
+            return credentials.hashAsync(password).join();
+        } catch (CompletionException error) {
+            error.printStackTrace();
+            return null;
+        }
     }
 
 }
@@ -0,0 +1,579 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * The WriteAheadLog class keeps health data and medicine reminder writes on local disk while the database cannot
+ * take them, and replays them once it can.
+ * <p>
+ * The log is a directory of fixed-size, memory-mapped segment files written append-only. A segment starts with a
+ * header of a magic number and the offset up to which it has been replayed, followed by records of
+ * [payload length][CRC32 of type and payload][type][payload]. A zero length marks the end of the records.
+ * When a record does not fit, the segment is forced to disk and a new one is started.
+ * Every append is forced to disk before it returns, so an accepted write survives a crash.
+ * <p>
+ * The replayer seals the segment being written, then goes through the segments oldest first. Health data is
+ * inserted in batches with insertHealthDataBatch and reminders one at a time. The replayed offset is saved after
+ * each batch commits, and a segment is deleted once it has been fully replayed. If the database is still down,
+ * replay stops and is tried again on the next run. A record with a bad checksum, such as one torn by a crash,
+ * ends its segment. A record that cannot be decoded, or that fails with anything other than the database being
+ * down, is discarded and replay moves past it, so one bad record cannot hold up the log. Appends refuse records the
+ * database would refuse anyway. Replay is at least once: a crash between a commit and saving the offset repeats
+ * that batch, and so does losing the connection while a batch commits, since the commit may have landed.
+ * <p>
+ * Writers only log a record when they know the database did not take it: when they could not get a connection or
+ * lost it before committing. If the connection is lost during the commit itself the write may or may not have
+ * been applied, so it is reported as failed with SQLState 40003 (statement completion unknown) and not logged,
+ * rather than risk storing it twice. Readings have no natural key that would let a duplicate be spotted.
+ */
+public class WriteAheadLog {
+    private static final int MAGIC = 0x48574131;            // "HWA1"
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 9;
+    private static final byte HEALTH_DATA = 1;
+    private static final byte MEDICINE_REMINDER = 2;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final String OUTCOME_UNKNOWN = "40003";
+    private static final int DEFAULT_SEGMENT_BYTES = 8 * 1024 * 1024;
+    private static final int DEFAULT_REPLAY_BATCH_SIZE = 500;
+
+    private static WriteAheadLog instance;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int replayBatchSize;
+
+    // The segment being appended to, guarded by this.
+    private long activeSequence;
+    private FileChannel activeChannel;
+    private MappedByteBuffer active;
+
+    // Held while replaying, so scheduled and manual replays do not overlap. Appends do not wait for it.
+    private final Object replayLock = new Object();
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private ScheduledExecutorService replayer;
+
+    /**
+     * Constructs a WriteAheadLog in a directory, creating it if needed. Segments left by an earlier run are kept
+     * for replay and new records go to a new segment.
+     *
+     * @param directory       The directory the segment files are kept in.
+     * @param segmentBytes    The size of each segment file.
+     * @param replayBatchSize The most health data rows inserted in one batch during replay.
+     * @throws IOException If the directory or the first segment cannot be created.
+     */
+    public WriteAheadLog(Path directory, int segmentBytes, int replayBatchSize) throws IOException {
+        if (segmentBytes <= HEADER_BYTES + RECORD_HEADER_BYTES || replayBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid segment size " + segmentBytes + " or batch size " + replayBatchSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.replayBatchSize = replayBatchSize;
+        TreeMap<Long, Path> existing = listSegments();
+        activeSequence = existing.isEmpty() ? 0 : existing.lastKey();
+        openNextSegment();
+    }
+
+    /**
+     * Gets the shared WriteAheadLog, in the directory given by -Dwal.dir (default "wal") with segments of
+     * -Dwal.segmentBytes bytes (default 8 MB).
+     *
+     * @return The shared instance, created on first use.
+     * @throws UncheckedIOException If the log directory cannot be used.
+     */
+    public static synchronized WriteAheadLog getInstance() {
+        if (instance == null) {
+            try {
+                instance = new WriteAheadLog(Paths.get(System.getProperty("wal.dir", "wal")),
+                        Integer.getInteger("wal.segmentBytes", DEFAULT_SEGMENT_BYTES), DEFAULT_REPLAY_BATCH_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Checks whether an error means the database could not be reached or did not answer in time, as opposed to
+     * the database refusing the write. Only the first kind is worth logging and retrying.
+     *
+     * @param error The error from a database call.
+     * @return true for connection errors (SQLState class 08), transient connection errors such as the pool timing out
+     *         after db.pool.borrowTimeoutMillis, and recoverable errors. A query that is merely slow does not count.
+     */
+    public static boolean isUnavailable(SQLException error) {
+        for (SQLException e = error; e != null; e = e.getNextException()) {
+            if (e instanceof SQLTransientConnectionException || e instanceof SQLRecoverableException
+                    || (e.getSQLState() != null && e.getSQLState().startsWith("08"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks an error from committing a write, or from a statement that commits by itself, as leaving the write's
+     * outcome unknown when it means the connection was lost, so it is not logged to be written again.
+     *
+     * @param error The error from the commit.
+     * @return The error itself if the database answered, otherwise a new error with SQLState 40003 caused by it.
+     */
+    public static SQLException outcomeUnknown(SQLException error) {
+        if (!isUnavailable(error)) {
+            return error;
+        }
+        return new SQLException("Lost the connection while committing, the write may or may not have been applied",
+                OUTCOME_UNKNOWN, error);
+    }
+
+    /**
+     * Checks whether an error came from a commit that may or may not have been applied.
+     *
+     * @param error The error from a database call.
+     * @return true if the error has SQLState 40003.
+     */
+    public static boolean isOutcomeUnknown(SQLException error) {
+        return OUTCOME_UNKNOWN.equals(error.getSQLState());
+    }
+
+    /**
+     * Appends a health data reading to the log.
+     *
+     * @param healthData The health data to be inserted later.
+     * @throws IOException If the record could not be written.
+     * @throws IllegalArgumentException If the database would refuse the reading.
+     */
+    public void append(HealthData healthData) throws IOException {
+        checkHealthData(healthData);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(healthData.getUserId());
+        out.writeDouble(healthData.getWeight());
+        out.writeDouble(healthData.getHeight());
+        out.writeInt(healthData.getSteps());
+        out.writeInt(healthData.getHeartRate());
+        // A reading without a date is stored under the day it was taken, not the day it is replayed.
+        writeDate(out, HealthDataDao.dateOrToday(healthData));
+        append(HEALTH_DATA, bytes.toByteArray());
+    }
+
+    /**
+     * Appends a medicine reminder to the log.
+     *
+     * @param reminder The medicine reminder to be stored later.
+     * @throws IOException If the record could not be written.
+     * @throws IllegalArgumentException If the database would refuse the reminder.
+     */
+    public void append(MedicineReminder reminder) throws IOException {
+        checkMedicineReminder(reminder);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(reminder.getUserId());
+        out.writeUTF(reminder.getMedicineName());
+        out.writeUTF(reminder.getDosage());
+        out.writeUTF(reminder.getSchedule());
+        writeDate(out, reminder.getStartDate());
+        writeDate(out, reminder.getEndDate());
+        append(MEDICINE_REMINDER, bytes.toByteArray());
+    }
+
+    /**
+     * Replays every sealed segment into the database, oldest first, sealing the segment being written first.
+     *
+     * @param healthDataDao           Inserts the logged health data.
+     * @param medicineReminderManager Stores the logged medicine reminders.
+     * @return The number of records taken out of the log, including any the database refused.
+     * @throws IOException If a segment could not be read or deleted.
+     */
+    public int replay(HealthDataDao healthDataDao, MedicineReminderManager medicineReminderManager) throws IOException {
+        synchronized (replayLock) {
+            long sealedThrough = sealActive();
+            int count = 0;
+            for (Path segment : listSegments().headMap(sealedThrough, true).values()) {
+                int segmentCount = replaySegment(segment, healthDataDao, medicineReminderManager);
+                if (segmentCount < 0) {
+                    // The database is still down, try again later.
+                    return count;
+                }
+                count += segmentCount;
+                Files.delete(segment);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Starts replaying the log into the database on a schedule.
+     *
+     * @param healthDataDao           Inserts the logged health data.
+     * @param medicineReminderManager Stores the logged medicine reminders.
+     * @param periodSeconds           How often to replay, in seconds.
+     */
+    public synchronized void startReplay(HealthDataDao healthDataDao, MedicineReminderManager medicineReminderManager,
+                                         long periodSeconds) {
+        stopReplay();
+        replayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-ahead-log-replayer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        replayer.scheduleWithFixedDelay(() -> {
+            try {
+                replay(healthDataDao, medicineReminderManager);
+            } catch (IOException | RuntimeException error) {
+                error.printStackTrace();
+            }
+        }, 0, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops replaying on a schedule. Logged records stay on disk for the next replay.
+     */
+    public synchronized void stopReplay() {
+        if (replayer != null) {
+            replayer.shutdown();
+            replayer = null;
+        }
+    }
+
+    /**
+     * Gets the number of records appended since the log was opened.
+     *
+     * @return The number of appended records.
+     */
+    public long getAppendedCount() {
+        return appended.get();
+    }
+
+    /**
+     * Gets the number of records replayed into the database since the log was opened.
+     *
+     * @return The number of replayed records.
+     */
+    public long getReplayedCount() {
+        return replayed.get();
+    }
+
+    /**
+     * Gets the number of records dropped during replay because the database refused them, they could not be decoded,
+     * or their checksum was bad.
+     *
+     * @return The number of discarded records.
+     */
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    /**
+     * Gets the number of segment files on disk, including the one being written.
+     *
+     * @return The number of segments.
+     * @throws IOException If the directory cannot be listed.
+     */
+    public int getSegmentCount() throws IOException {
+        return listSegments().size();
+    }
+
+    private synchronized void append(byte type, byte[] payload) throws IOException {
+        int recordBytes = RECORD_HEADER_BYTES + payload.length;
+        // Leave room for the zero length that ends the records.
+        if (HEADER_BYTES + recordBytes + 4 > segmentBytes) {
+            throw new IOException("Record of " + recordBytes + " bytes does not fit in a segment of " + segmentBytes);
+        }
+        if (active.remaining() < recordBytes + 4) {
+            active.force();
+            openNextSegment();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        int start = active.position();
+        active.putInt(payload.length);
+        active.putInt((int) crc.getValue());
+        active.put(type);
+        active.put(payload);
+        active.force(start, recordBytes);
+        appended.incrementAndGet();
+    }
+
+    // Starts a new segment if the active one has records. Returns the sequence of the last sealed segment.
+    private synchronized long sealActive() throws IOException {
+        if (active.position() > HEADER_BYTES) {
+            active.force();
+            openNextSegment();
+        }
+        return activeSequence - 1;
+    }
+
+    private void openNextSegment() throws IOException {
+        if (activeChannel != null) {
+            activeChannel.close();
+        }
+        activeSequence++;
+        Path path = directory.resolve(String.format("wal-%020d.log", activeSequence));
+        activeChannel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        active = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        active.putInt(MAGIC);
+        active.putInt(HEADER_BYTES);
+        active.force(0, HEADER_BYTES);
+    }
+
+    // Replays one segment from its saved offset. Returns the number of records replayed, or -1 if the database is down.
+    private int replaySegment(Path segment, HealthDataDao healthDataDao, MedicineReminderManager medicineReminderManager)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+                System.err.println("Skipping " + segment + ", not a write-ahead log segment");
+                return 0;
+            }
+            buffer.position(buffer.getInt(4));
+            List<HealthData> batch = new ArrayList<>(replayBatchSize);
+            int count = 0;
+            while (true) {
+                int recordStart = buffer.position();
+                byte type = 0;
+                byte[] payload = readRecord(buffer);
+                if (payload != null) {
+                    type = buffer.get(recordStart + 8);
+                } else if (buffer.position() != recordStart) {
+                    System.err.println("Bad checksum at offset " + recordStart + " in " + segment + ", dropping the rest of it");
+                    discarded.incrementAndGet();
+                }
+                // Write out the health data gathered so far before a reminder, at the end, or when the batch is full.
+                if (!batch.isEmpty() && (type != HEALTH_DATA || batch.size() == replayBatchSize)) {
+                    if (!replayHealthData(healthDataDao, batch)) {
+                        return -1;
+                    }
+                    count += batch.size();
+                    batch.clear();
+                    saveOffset(buffer, recordStart);
+                }
+                if (payload == null) {
+                    return count;
+                }
+                if (type == HEALTH_DATA) {
+                    HealthData healthData = decode(segment, recordStart, () -> readHealthData(payload));
+                    if (healthData != null) {
+                        batch.add(healthData);
+                    } else if (batch.isEmpty()) {
+                        saveOffset(buffer, buffer.position());
+                    }
+                } else if (type == MEDICINE_REMINDER) {
+                    MedicineReminder reminder = decode(segment, recordStart, () -> readMedicineReminder(payload));
+                    if (reminder != null) {
+                        if (!replayReminder(medicineReminderManager, reminder)) {
+                            return -1;
+                        }
+                        count++;
+                    }
+                    saveOffset(buffer, buffer.position());
+                } else {
+                    System.err.println("Unknown record type " + type + " in " + segment);
+                    discarded.incrementAndGet();
+                    saveOffset(buffer, buffer.position());
+                }
+            }
+        }
+    }
+
+    // Reads the record at the buffer's position. Returns null at the end of the records or on a bad checksum.
+    private static byte[] readRecord(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < RECORD_HEADER_BYTES) {
+            return null;
+        }
+        int length = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining() - 5) {
+            buffer.position(length == 0 ? start : start + 1);
+            return null;
+        }
+        int expectedCrc = buffer.getInt();
+        byte type = buffer.get();
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        if ((int) crc.getValue() != expectedCrc) {
+            return null;
+        }
+        return payload;
+    }
+
+    private interface Decoder<T> {
+        T decode() throws IOException;
+    }
+
+    // Decodes a record. Returns null, counting it as discarded, if it is malformed or the database would refuse it.
+    private <T> T decode(Path segment, int offset, Decoder<T> decoder) {
+        try {
+            return decoder.decode();
+        } catch (IOException | RuntimeException error) {
+            System.err.println("Discarding the record at offset " + offset + " in " + segment + ": " + error);
+            discarded.incrementAndGet();
+            return null;
+        }
+    }
+
+    // Inserts a batch. Returns false if the database is down, so the batch is kept.
+    private boolean replayHealthData(HealthDataDao healthDataDao, List<HealthData> batch) {
+        HealthDataBatchResult result;
+        try {
+            result = healthDataDao.insertHealthDataBatch(batch);
+        } catch (RuntimeException error) {
+            if (batch.size() == 1) {
+                error.printStackTrace();
+                discarded.incrementAndGet();
+                return true;
+            }
+            // Find the row that broke the batch by inserting them one at a time.
+            for (HealthData healthData : batch) {
+                if (!replayHealthData(healthDataDao, List.of(healthData))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (SQLException error : result.getFailures().values()) {
+            // A commit that may have landed is tried again too, which can store the batch twice.
+            if (isUnavailable(error) || isOutcomeUnknown(error)) {
+                return false;
+            }
+        }
+        // Rows the database refused would be refused again, so they are dropped.
+        discarded.addAndGet(result.getFailedCount());
+        replayed.addAndGet(result.getInsertedCount());
+        return true;
+    }
+
+    private boolean replayReminder(MedicineReminderManager medicineReminderManager, MedicineReminder reminder) {
+        try {
+            medicineReminderManager.insertReminder(reminder);
+            replayed.incrementAndGet();
+        } catch (SQLException error) {
+            if (isUnavailable(error) || isOutcomeUnknown(error)) {
+                return false;
+            }
+            error.printStackTrace();
+            discarded.incrementAndGet();
+        } catch (RuntimeException error) {
+            error.printStackTrace();
+            discarded.incrementAndGet();
+        }
+        return true;
+    }
+
+    // Rejects readings outside the health_data columns: DECIMAL(5,1) weight and DECIMAL(4,1) height.
+    private static void checkHealthData(HealthData healthData) {
+        double weight = healthData.getWeight();
+        double height = healthData.getHeight();
+        if (!Double.isFinite(weight) || !Double.isFinite(height)
+                || Math.abs(Math.round(weight * 10)) >= 100_000 || Math.abs(Math.round(height * 10)) >= 10_000
+                || healthData.getSteps() < 0 || healthData.getHeartRate() < 0) {
+            throw new IllegalArgumentException("Health data the database would refuse: user " + healthData.getUserId()
+                    + ", weight " + weight + ", height " + height + ", steps " + healthData.getSteps()
+                    + ", heart rate " + healthData.getHeartRate() + ", date " + healthData.getDate());
+        }
+    }
+
+    // Rejects reminders outside the medicine_reminders columns: required text within its length, and both dates.
+    private static void checkMedicineReminder(MedicineReminder reminder) {
+        String problem = null;
+        if (!fits(reminder.getMedicineName(), 100) || !fits(reminder.getDosage(), 50) || !fits(reminder.getSchedule(), 100)) {
+            problem = "missing or too long medicine name, dosage or schedule";
+        } else if (reminder.getStartDate() == null || reminder.getEndDate() == null) {
+            problem = "missing start or end date";
+        } else if (reminder.getEndDate().isBefore(reminder.getStartDate())) {
+            problem = "end date " + reminder.getEndDate() + " before start date " + reminder.getStartDate();
+        }
+        if (problem != null) {
+            throw new IllegalArgumentException("Medicine reminder the database would refuse for user "
+                    + reminder.getUserId() + ": " + problem);
+        }
+    }
+
+    private static boolean fits(String text, int maxLength) {
+        return text != null && text.length() <= maxLength;
+    }
+
+    private static void saveOffset(MappedByteBuffer buffer, int offset) {
+        buffer.putInt(4, offset);
+        buffer.force(4, 4);
+    }
+
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "wal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(4, name.length() - 4)), file);
+                } catch (NumberFormatException ignored) {
+                    // Not one of ours.
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static HealthData readHealthData(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int userId = in.readInt();
+        double weight = in.readDouble();
+        double height = in.readDouble();
+        int steps = in.readInt();
+        int heartRate = in.readInt();
+        HealthData healthData = new HealthData(userId, weight, height, steps, heartRate, readDate(in));
+        checkHealthData(healthData);
+        return healthData;
+    }
+
+    private static MedicineReminder readMedicineReminder(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int userId = in.readInt();
+        String medicineName = in.readUTF();
+        String dosage = in.readUTF();
+        String schedule = in.readUTF();
+        LocalDate startDate = readDate(in);
+        LocalDate endDate = readDate(in);
+        MedicineReminder reminder = new MedicineReminder(userId, medicineName, dosage, schedule, startDate, endDate);
+        checkMedicineReminder(reminder);
+        return reminder;
+    }
+
+    private static void writeDate(DataOutputStream out, LocalDate date) throws IOException {
+        out.writeLong(date == null ? NO_DATE : date.toEpochDay());
+    }
+
+    private static LocalDate readDate(DataInputStream in) throws IOException {
+        long epochDay = in.readLong();
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+}
@@ -7,4 +7,7 @@ CREATE TABLE health_data (
     heart_rate INT NOT NULL,
     date DATE NOT NULL,
     FOREIGN KEY (user_id) REFERENCES users(id)
-)
+);
+
+-- Serves per-user date range reads and keyset pages ordered by (date, id).
+CREATE INDEX health_data_user_date_id_idx ON health_data (user_id, date, id);
@@ -0,0 +1,17 @@
+CREATE SEQUENCE health_data_change_seq;
+
+-- The latest change to each user's health data, written in the same transaction as the change.
+CREATE TABLE health_data_changes (
+    user_id INT PRIMARY KEY,
+    change_seq BIGINT NOT NULL,
+    changed_at TIMESTAMP NOT NULL DEFAULT now(),
+    FOREIGN KEY (user_id) REFERENCES users(id)
+);
+
+-- The last change each user's recommendations were generated from.
+CREATE TABLE recommendation_watermarks (
+    user_id INT PRIMARY KEY,
+    processed_seq BIGINT NOT NULL,
+    processed_at TIMESTAMP NOT NULL DEFAULT now(),
+    FOREIGN KEY (user_id) REFERENCES users(id)
+);
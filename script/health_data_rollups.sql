@@ -0,0 +1,19 @@
+CREATE TABLE health_data_rollups (
+    user_id INT NOT NULL,
+    period VARCHAR(4) NOT NULL,
+    period_start DATE NOT NULL,
+    reading_count INT NOT NULL,
+    steps_sum BIGINT NOT NULL,
+    steps_min INT NOT NULL,
+    steps_max INT NOT NULL,
+    heart_rate_sum BIGINT NOT NULL,
+    heart_rate_min INT NOT NULL,
+    heart_rate_max INT NOT NULL,
+    weight_sum DECIMAL(12,1) NOT NULL,
+    weight_min DECIMAL(5,1) NOT NULL,
+    weight_max DECIMAL(5,1) NOT NULL,
+    last_weight DECIMAL(5,1) NOT NULL,
+    last_date DATE NOT NULL,
+    PRIMARY KEY (user_id, period, period_start),
+    FOREIGN KEY (user_id) REFERENCES users(id)
+)
@@ -4,7 +4,17 @@ CREATE TABLE medicine_reminders (
     medicine_name VARCHAR(100) NOT NULL,
     dosage VARCHAR(50) NOT NULL,
     schedule VARCHAR(100) NOT NULL,
+    -- The schedule compiled by ReminderSchedule: minutes after midnight, weekday bitmask (bit 0 = Monday) and day interval.
+    -- NULL for reminders stored before these columns existed, which are parsed from schedule instead.
+    schedule_minutes SMALLINT[],
+    schedule_weekdays SMALLINT,
+    schedule_interval_days SMALLINT,
     start_date DATE NOT NULL,
     end_date DATE NOT NULL,
     FOREIGN KEY (user_id) REFERENCES users(id)
-)
+);
+
+-- For scans of the reminders active on a day, across all users.
+CREATE INDEX medicine_reminders_active_idx ON medicine_reminders (start_date, end_date);
+-- For finding reminders with a time inside a window, with schedule_minutes && ARRAY[...].
+CREATE INDEX medicine_reminders_minutes_idx ON medicine_reminders USING GIN (schedule_minutes);
@@ -0,0 +1,23 @@
+CREATE TABLE recommendation_rules (
+    id SERIAL PRIMARY KEY,
+    metric VARCHAR(20) NOT NULL,
+    comparator VARCHAR(10) NOT NULL,
+    low_value DECIMAL(10,2) NOT NULL,
+    high_value DECIMAL(10,2),
+    message TEXT NOT NULL,
+    enabled BOOLEAN NOT NULL DEFAULT TRUE,
+    sort_order INT NOT NULL DEFAULT 0
+);
+
+-- The rules RecommendationSystem used to hard-code, then the trend rules. {low} and {high} in a message are replaced by the thresholds.
+-- Metrics ending in _7D or _30D are only evaluated over a user's trends, never on a single reading.
+INSERT INTO recommendation_rules (metric, comparator, low_value, high_value, message, sort_order) VALUES
+    ('HEART_RATE', 'LT', 60, NULL, 'Your heart rate is lower than the recommended range. Consider increasing your physical activity to improve your cardiovascular health.', 10),
+    ('HEART_RATE', 'GT', 100, NULL, 'Your heart rate is higher than the reccomended range. Try taking it easy to improve your cardiovascular health. Could be due to heavy exercise, stress, low blood sugar or low blood pressure. May', 20),
+    ('STEPS', 'LT', 10000, NULL, 'You''re not reaching the recommended daily step count ({low} steps). Try to incorporate more walking or other physical activities into your daily routine.', 30),
+    ('BMI', 'LT', 18.5, NULL, 'Your Body Mass Index (BMI) falls within the underweight range. Consider diet and exercise changes.', 40),
+    ('BMI', 'BETWEEN', 25.0, 29.9, 'Your Body Mass Index (BMI) falls within the overweight range. Consider making diet and exercise changes.', 50),
+    ('BMI', 'GE', 30.0, NULL, 'Your Body Mass Index (BMI) falls within the obese range. Consider making diet and exercise changes.', 60),
+    ('WEIGHT_SLOPE_30D', 'GT', 2, NULL, 'Your weight has been going up by more than {low} pounds a week over the last month. Consider making diet and exercise changes.', 70),
+    ('WEIGHT_SLOPE_30D', 'LT', -2, NULL, 'Your weight has been going down quickly over the last month. If this is not intended, consider talking to your doctor.', 80),
+    ('HEART_RATE_STDDEV_7D', 'GT', 20, NULL, 'Your heart rate has varied a lot over the last week. Consider keeping an eye on it and talking to your doctor if it continues.', 90);
@@ -4,4 +4,7 @@ CREATE TABLE recommendations (
     recommendation_text TEXT NOT NULL,
     date DATE NOT NULL,
     FOREIGN KEY (user_id) REFERENCES users(id)
-)
+);
+
+-- One copy of each recommendation per user and day, so generation jobs can be re-run safely.
+CREATE UNIQUE INDEX recommendations_user_date_text_idx ON recommendations (user_id, date, md5(recommendation_text));